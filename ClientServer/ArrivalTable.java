@@ -0,0 +1,146 @@
+package ClientServer;
+
+import java.util.function.Consumer;
+
+/**
+ * Server-side heartbeat counts and clock estimates per node, in a compact
+ * open-addressed table: node ids (packed IPv4, as in ClientTable) in one int
+ * array and everything else in parallel primitive arrays. Node id 0 marks an
+ * empty slot. Liveness is not kept here but in the ExpiryWheel.
+ *
+ * When a client echoes the timestamp of our last update we keep smoothed
+ * (1/8 EWMA, as TCP does for SRTT) estimates of round-trip time and the
+ * client's clock offset, from the wall-clock time the echo was read.
+ */
+class ArrivalTable {
+    private int[] keys;
+    private long[] heartbeats;
+    private long[] rttMicros;     // Smoothed round-trip time, -1 = no sample yet
+    private long[] offsetMillis;  // Smoothed client clock minus server clock
+    private int size;
+
+    ArrivalTable(int expectedNodes) {
+        allocate(Integer.highestOneBit(Math.max(16, expectedNodes * 2) - 1) << 1);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        heartbeats = new long[capacity];
+        rttMicros = new long[capacity];
+        offsetMillis = new long[capacity];
+    }
+
+    private int slotFor(int nodeId) {
+        int mask = keys.length - 1;
+        int slot = ClientTable.mix(nodeId) & mask;
+        while (keys[slot] != 0 && keys[slot] != nodeId) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Counts a heartbeat from nodeId, adding the node if it is new.
+     */
+    synchronized void recordArrival(int nodeId) {
+        int slot = slotFor(nodeId);
+        if (keys[slot] == 0) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                grow();
+                slot = slotFor(nodeId);
+            }
+            keys[slot] = nodeId;
+            heartbeats[slot] = 0;
+            rttMicros[slot] = -1;
+            offsetMillis[slot] = 0;
+            size++;
+        }
+        heartbeats[slot]++;
+    }
+
+    /**
+     * Updates the clock estimates from an echoed server timestamp.
+     * All *Millis arguments except clientTimestamp are server wall-clock times.
+     * Returns this sample's round-trip time in microseconds, or -1 for an unknown node.
+     */
+    synchronized long recordEcho(int nodeId, long echoedMillis, long holdMillis,
+                                 long clientTimestamp, long receivedMillis) {
+        int slot = slotFor(nodeId);
+        if (keys[slot] == 0) {
+            return -1;
+        }
+        long rtt = Math.max(0, receivedMillis - echoedMillis - holdMillis) * 1000;
+        long offset = clientTimestamp - (receivedMillis - rtt / 2000);
+        if (rttMicros[slot] < 0) {
+            rttMicros[slot] = rtt;
+            offsetMillis[slot] = offset;
+        } else {
+            rttMicros[slot] += (rtt - rttMicros[slot]) / 8;
+            offsetMillis[slot] += (offset - offsetMillis[slot]) / 8;
+        }
+        return rtt;
+    }
+
+    synchronized void remove(int nodeId) {
+        int slot = slotFor(nodeId);
+        if (keys[slot] == 0) {
+            return;
+        }
+        keys[slot] = 0;
+        size--;
+        // Re-insert the rest of the probe run so lookups never stop at the hole
+        int mask = keys.length - 1;
+        for (int next = (slot + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+            int key = keys[next];
+            keys[next] = 0;
+            int target = slotFor(key);
+            keys[target] = key;
+            heartbeats[target] = heartbeats[next];
+            rttMicros[target] = rttMicros[next];
+            offsetMillis[target] = offsetMillis[next];
+        }
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Visits a snapshot of each node's statistics.
+     */
+    synchronized void forEach(Consumer<NodeClock> action) {
+        NodeClock clock = new NodeClock();
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != 0) {
+                clock.nodeId = keys[slot];
+                clock.heartbeats = heartbeats[slot];
+                clock.rttMicros = rttMicros[slot];
+                clock.offsetMillis = offsetMillis[slot];
+                action.accept(clock);
+            }
+        }
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        long[] oldHeartbeats = heartbeats, oldRtt = rttMicros, oldOffset = offsetMillis;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = slotFor(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                heartbeats[slot] = oldHeartbeats[i];
+                rttMicros[slot] = oldRtt[i];
+                offsetMillis[slot] = oldOffset[i];
+            }
+        }
+    }
+
+    /** One row of the table, reused across forEach callbacks. */
+    static final class NodeClock {
+        int nodeId;
+        long heartbeats;
+        long rttMicros;
+        long offsetMillis;
+    }
+}
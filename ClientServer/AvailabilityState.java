@@ -0,0 +1,315 @@
+package ClientServer;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Versioned membership and file-list state kept by the server.
+ * Nodes are keyed by their packed IPv4 node id (as in ClientTable) and only
+ * formatted when an update is built. File names are interned in a FileNames
+ * dictionary and each node holds a sorted int[] of ids, so a file held by
+ * many clients is stored once.
+ * Every join, leave, file add and file remove bumps the version and is
+ * appended to a bounded change log, so a client that acknowledged version N
+ * can be sent just the changes after N instead of the whole table.
+ *
+ * Versions restart at 0 with every server process, so each state also has a
+ * random epoch. Updates carry it and clients acknowledge it with the version
+ * (see HeartbeatPayload); a version acknowledged under another epoch means
+ * nothing here and gets a snapshot.
+ *
+ * Update format (one item per line):
+ *   SNAPSHOT <version> <epoch>     followed by   nodeId::file1,file2,
+ *   DELTA <from> <to> <epoch>      followed by   +node id | -node id | +file id name | -file id name
+ */
+class AvailabilityState {
+    static final String SNAPSHOT = "SNAPSHOT";
+    static final String DELTA = "DELTA";
+
+    private static final char JOIN = 'J', LEAVE = 'L', ADD = 'A', REMOVE = 'R';
+
+    // Change log as a ring of parallel arrays, oldest entry at head
+    private final int[] changeVersion;
+    private final char[] changeOp;
+    private final int[] changeNode;
+    private final int[] changeFile; // File id (retained while logged), -1 for joins and leaves
+    private int head, count;
+
+    private final FileNames names = new FileNames(); // Every file name held by anyone, once
+    private final IntMap<Holding> holdings = new IntMap<>(1024);
+    private final int snapshotLag;
+    private final int epoch = ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE); // 0 = none
+    private int version;
+    private String snapshot; // Built for snapshotVersion, shared by every client that needs one
+    private int snapshotVersion = -1;
+
+    AvailabilityState(int logSize, int snapshotLag) {
+        changeVersion = new int[logSize];
+        changeOp = new char[logSize];
+        changeNode = new int[logSize];
+        changeFile = new int[logSize];
+        this.snapshotLag = snapshotLag;
+    }
+
+    synchronized int getVersion() {
+        return version;
+    }
+
+    int getEpoch() {
+        return epoch;
+    }
+
+    synchronized int size() {
+        return holdings.size();
+    }
+
+    // What we hold for one node
+    private static final class Holding {
+        int[] files;               // Sorted file ids, one name reference each
+        int listingVersion = -1;   // Client listing version we hold, -1 = unknown
+    }
+
+    /**
+     * Records the listing a node sent in its heartbeat. Unchanged listings record nothing;
+     * names already in the dictionary are looked up in place, without a substring each.
+     */
+    synchronized void updateListing(int nodeId, String listing) {
+        int[] current = parseIds(listing);
+        Holding holding = holdings.get(nodeId);
+        if (holding == null) {
+            holding = new Holding();
+            holdings.put(nodeId, holding);
+        }
+        int[] previous = holding.files;
+        holding.files = current;
+
+        if (previous == null) {
+            record(JOIN, nodeId, -1);
+            for (int file : current) {
+                record(ADD, nodeId, file);
+            }
+            return;
+        }
+        // Both sorted: walk them together
+        int i = 0, j = 0;
+        while (i < previous.length || j < current.length) {
+            if (j == current.length || (i < previous.length && previous[i] < current[j])) {
+                record(REMOVE, nodeId, previous[i]);
+                names.release(previous[i++]);
+            } else if (i == previous.length || current[j] < previous[i]) {
+                record(ADD, nodeId, current[j++]);
+            } else {
+                names.release(previous[i++]); // current holds its own reference
+                j++;
+            }
+        }
+    }
+
+    /**
+     * Applies the listing part of a versioned heartbeat (see HeartbeatPayload) and
+     * returns the client listing version we now hold, or -1 if we need the full list.
+     */
+    synchronized int updateListing(int nodeId, int listVersion, int listBase, String listing) {
+        if (listBase < 0) {
+            updateListing(nodeId, listing);
+            holdings.get(nodeId).listingVersion = listVersion;
+            return listVersion;
+        }
+
+        Holding holding = holdings.get(nodeId);
+        if (holding == null || holding.listingVersion < 0) {
+            return -1;
+        }
+        if (holding.listingVersion != listBase) {
+            return holding.listingVersion; // Client should resend the changes since what we actually have
+        }
+        int[] current = holding.files;
+
+        int start = 0;
+        while (start < listing.length()) {
+            int end = listing.indexOf('\n', start);
+            if (end < 0) {
+                end = listing.length();
+            }
+            if (end - start > 1) {
+                if (listing.charAt(start) == '+') {
+                    int file = names.acquire(listing, start + 1, end);
+                    int at = Arrays.binarySearch(current, file);
+                    if (at >= 0) {
+                        names.release(file);
+                    } else {
+                        current = insert(current, -at - 1, file);
+                        record(ADD, nodeId, file);
+                    }
+                } else {
+                    int file = names.find(listing, start + 1, end);
+                    int at = file < 0 ? -1 : Arrays.binarySearch(current, file);
+                    if (at >= 0) {
+                        current = delete(current, at);
+                        record(REMOVE, nodeId, file);
+                        names.release(file);
+                    }
+                }
+            }
+            start = end + 1;
+        }
+        holding.files = current;
+        holding.listingVersion = listVersion;
+        return listVersion;
+    }
+
+    synchronized void removeNode(int nodeId) {
+        Holding held = holdings.remove(nodeId);
+        if (held != null) {
+            for (int file : held.files) {
+                names.release(file);
+            }
+            record(LEAVE, nodeId, -1);
+        }
+    }
+
+    /**
+     * Builds the update for a client that has applied everything up to ackedVersion
+     * of this epoch (pass -1 if it acknowledged another epoch, or none).
+     * Returns null when the client is already current.
+     */
+    synchronized String buildUpdate(int ackedVersion) {
+        if (ackedVersion == version) {
+            return null;
+        }
+        int oldest = count == 0 ? version + 1 : changeVersion[head];
+        if (ackedVersion <= 0 || ackedVersion > version
+                || ackedVersion + 1 < oldest || version - ackedVersion > snapshotLag) {
+            return buildSnapshot();
+        }
+
+        StringBuilder update = new StringBuilder();
+        update.append(DELTA).append(' ').append(ackedVersion).append(' ').append(version).append(' ').append(epoch)
+                .append('\n');
+        for (int i = 0; i < count; i++) {
+            int slot = (head + i) % changeVersion.length;
+            if (changeVersion[slot] <= ackedVersion) {
+                continue;
+            }
+            String node = Protocol.formatAddress(changeNode[slot]);
+            switch (changeOp[slot]) {
+                case JOIN:   update.append("+node ").append(node); break;
+                case LEAVE:  update.append("-node ").append(node); break;
+                case ADD:    update.append("+file ").append(node).append(' ').append(names.name(changeFile[slot])); break;
+                case REMOVE: update.append("-file ").append(node).append(' ').append(names.name(changeFile[slot])); break;
+            }
+            update.append('\n');
+        }
+        return update.toString();
+    }
+
+    synchronized String buildSnapshot() {
+        if (snapshotVersion == version) {
+            return snapshot;
+        }
+        StringBuilder text = new StringBuilder();
+        text.append(SNAPSHOT).append(' ').append(version).append(' ').append(epoch).append('\n');
+        // In address order, flipping the sign bit so 128.0.0.0 and up sort after 127.255.255.255
+        int[] nodes = new int[holdings.size()];
+        int[] n = new int[1];
+        holdings.forEach((node, holding) -> nodes[n[0]++] = node ^ Integer.MIN_VALUE);
+        Arrays.sort(nodes);
+        for (int sortKey : nodes) {
+            int node = sortKey ^ Integer.MIN_VALUE;
+            text.append(Protocol.formatAddress(node)).append("::");
+            for (int file : holdings.get(node).files) {
+                text.append(names.name(file)).append(',');
+            }
+            text.append('\n');
+        }
+        snapshot = text.toString();
+        snapshotVersion = version;
+        return snapshot;
+    }
+
+    private void record(char op, int nodeId, int file) {
+        version++;
+        int slot;
+        if (count < changeVersion.length) {
+            slot = (head + count) % changeVersion.length;
+            count++;
+        } else {
+            slot = head; // Overwrite the oldest change
+            head = (head + 1) % changeVersion.length;
+            if (changeFile[slot] >= 0) {
+                names.release(changeFile[slot]);
+            }
+        }
+        changeVersion[slot] = version;
+        changeOp[slot] = op;
+        changeNode[slot] = nodeId;
+        changeFile[slot] = file;
+        if (file >= 0) {
+            names.retain(file);
+        }
+    }
+
+    // Sorted, distinct ids of the files in a comma separated listing, one reference taken on each
+    private int[] parseIds(String listing) {
+        if (listing.startsWith("No files available") || listing.startsWith("ERROR:")) {
+            return new int[0];
+        }
+        int[] ids = new int[8];
+        int n = 0;
+        int start = 0;
+        while (start < listing.length()) {
+            int comma = listing.indexOf(',', start);
+            int end = comma < 0 ? listing.length() : comma;
+            if (end > start) {
+                if (n == ids.length) {
+                    ids = Arrays.copyOf(ids, n * 2);
+                }
+                ids[n++] = names.acquire(listing, start, end);
+            }
+            start = end + 1;
+        }
+        Arrays.sort(ids, 0, n);
+        int distinct = 0;
+        for (int i = 0; i < n; i++) {
+            if (distinct > 0 && ids[i] == ids[distinct - 1]) {
+                names.release(ids[i]); // Listed twice
+            } else {
+                ids[distinct++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(ids, distinct);
+    }
+
+    private static int[] insert(int[] ids, int at, int id) {
+        int[] result = new int[ids.length + 1];
+        System.arraycopy(ids, 0, result, 0, at);
+        result[at] = id;
+        System.arraycopy(ids, at, result, at + 1, ids.length - at);
+        return result;
+    }
+
+    private static int[] delete(int[] ids, int at) {
+        int[] result = new int[ids.length - 1];
+        System.arraycopy(ids, 0, result, 0, at);
+        System.arraycopy(ids, at + 1, result, at, ids.length - at - 1);
+        return result;
+    }
+
+    // Heartbeat listings are comma separated file entries; status strings carry no files
+    static Set<String> parseListing(String listing) {
+        Set<String> result = new TreeSet<>();
+        if (listing.startsWith("No files available") || listing.startsWith("ERROR:")) {
+            return result;
+        }
+        int start = 0;
+        while (start < listing.length()) {
+            int comma = listing.indexOf(',', start);
+            int end = comma < 0 ? listing.length() : comma;
+            if (end > start) {
+                result.add(listing.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return result;
+    }
+}
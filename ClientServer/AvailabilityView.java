@@ -0,0 +1,106 @@
+package ClientServer;
+
+import java.util.*;
+
+/**
+ * Client-side copy of the server's availability table, rebuilt from the
+ * SNAPSHOT and DELTA updates produced by AvailabilityState.
+ */
+class AvailabilityView {
+    private final Map<String, Set<String>> files = new TreeMap<>(); // nodeId -> files
+    private int version;
+    private int epoch; // Of the server state version belongs to, 0 = none yet
+
+    synchronized int getVersion() {
+        return version;
+    }
+
+    synchronized int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Applies one update. Returns false if it is a delta this view cannot apply
+     * (it starts after our version, or comes from another server epoch); the
+     * server will fall back to a snapshot.
+     */
+    synchronized boolean apply(String update) {
+        String[] lines = update.split("\n");
+        if (lines.length == 0) {
+            return false;
+        }
+        String[] header = lines[0].split(" ");
+
+        if (header[0].equals(AvailabilityState.SNAPSHOT)) {
+            files.clear();
+            for (int i = 1; i < lines.length; i++) {
+                int sep = lines[i].indexOf("::");
+                if (sep > 0) {
+                    files.put(lines[i].substring(0, sep), AvailabilityState.parseListing(lines[i].substring(sep + 2)));
+                }
+            }
+            version = Integer.parseInt(header[1]);
+            epoch = header.length > 2 ? Integer.parseInt(header[2]) : 0;
+            return true;
+        }
+
+        if (header[0].equals(AvailabilityState.DELTA)) {
+            int from = Integer.parseInt(header[1]);
+            int to = Integer.parseInt(header[2]);
+            if (header.length < 4 || Integer.parseInt(header[3]) != epoch) {
+                return false; // Versions of another server process say nothing about ours
+            }
+            if (from > version || to <= version) {
+                return to <= version; // Old news is fine, a gap is not
+            }
+            // Replaying changes we already have is harmless: the last change per file wins
+            for (int i = 1; i < lines.length; i++) {
+                applyChange(lines[i]);
+            }
+            version = to;
+            return true;
+        }
+        return false;
+    }
+
+    private void applyChange(String line) {
+        int first = line.indexOf(' ');
+        if (first < 0) {
+            return;
+        }
+        String op = line.substring(0, first);
+        int second = line.indexOf(' ', first + 1);
+        String nodeId = second < 0 ? line.substring(first + 1) : line.substring(first + 1, second);
+        String file = second < 0 ? null : line.substring(second + 1);
+
+        switch (op) {
+            case "+node": files.putIfAbsent(nodeId, new TreeSet<>()); break;
+            case "-node": files.remove(nodeId); break;
+            case "+file": files.computeIfAbsent(nodeId, k -> new TreeSet<>()).add(file); break;
+            case "-file": {
+                Set<String> nodeFiles = files.get(nodeId);
+                if (nodeFiles != null) {
+                    nodeFiles.remove(file);
+                }
+                break;
+            }
+        }
+    }
+
+    // Same "nodeId::files" layout the full broadcasts used to have
+    @Override
+    public synchronized String toString() {
+        if (files.isEmpty()) {
+            return "No active clients.";
+        }
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Set<String>> entry : files.entrySet()) {
+            text.append(entry.getKey()).append("::");
+            for (String file : entry.getValue()) {
+                text.append(file).append(',');
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+}
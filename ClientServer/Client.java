@@ -2,23 +2,46 @@ package ClientServer;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
 import ClientServer.*;  
 
 public class Client extends Node { 
+    private static final Log LOG = Log.get("Client");
     private String serverIP;
     private int serverPort;
     private DatagramSocket socket;
+    private int mtu; // Largest datagram we send; bigger messages are fragmented
+    private Reassembler reassembler;
     private ExecutorService executorService;
-    private volatile String lastServerUpdate = "Waiting for updates...";
+    private final AvailabilityView availability = new AvailabilityView(); // Built from server updates
+    private boolean rttProbe; // Echo the server's timestamp so it can estimate RTT and clock offset
+    private volatile long lastServerTimestamp = -1;
+    private volatile long lastServerReceiveNanos;
+    private FileIndex fileIndex; // Incremental listing of the home directory
+    private volatile int ackedListingVersion = -1; // Listing version the server holds, -1 = unknown
+
+    private final Metrics metrics = new Metrics("client");
+    private final Metrics.Counter packetsOut = metrics.counter("packets_out");
+    private final Metrics.Counter bytesOut = metrics.counter("bytes_out");
+    private final Metrics.Counter packetsIn = metrics.counter("packets_in");
+    private final Metrics.Counter bytesIn = metrics.counter("bytes_in");
+    private final Metrics.Counter decodeFailures = metrics.counter("decode_failures");
+    private final Metrics.Counter updates = metrics.counter("updates_applied");
 
     public Client() {
         try {
-            System.out.println("Client is starting...");
-
             // Load config file using ConfigReader
             ConfigReader config = new ConfigReader("ClientServer/client_config.properties");
+            Log.setDefaultLevel(Log.parse(config.getProperty("log_level", null), Log.Level.INFO));
+            String logFile = config.getProperty("log_file", "");
+            if (!logFile.isEmpty()) {
+                Log.setFile(logFile);
+            }
+            LOG.info("Client is starting...");
 
             // Set Node attributes using inherited setters
             setIpAddress(config.getProperty("client_ip", InetAddress.getLocalHost().getHostAddress())); // Get actual IP
@@ -30,21 +53,49 @@ public class Client extends Node {
             serverIP = config.getProperty("server_ip", "127.0.0.1");
             serverPort = config.getIntProperty("server_port", 5000);
 
+            rttProbe = Boolean.parseBoolean(config.getProperty("rtt_probe", "true"));
+            mtu = config.getIntProperty("mtu", 1200);
+            reassembler = new Reassembler(
+                    config.getIntProperty("reassembly_max_messages", 16),
+                    config.getIntProperty("reassembly_max_bytes", 8 * 1024 * 1024),
+                    config.getIntProperty("reassembly_timeout_ms", 5000));
+
+            String hashCacheFile = config.getProperty("hash_cache_file", "");
+            fileIndex = openFileIndex(config.getIntProperty("listing_log_size", 4096),
+                    hashCacheFile.isEmpty() ? null : Paths.get(hashCacheFile));
+            long reconcileMillis = config.getIntProperty("reconcile_interval_ms", 300000);
+
             // Create socket for communication
             socket = new DatagramSocket(getPort(), InetAddress.getByName(getIpAddress()));
             executorService = Executors.newCachedThreadPool();
 
-            System.out.println("Client " + getIpAddress() + " running at " +
+            LOG.info("Client " + getIpAddress() + " running at " +
                 getIpAddress() + ":" + getPort() +
                 " -> Server " + serverIP + ":" + serverPort);
 
+            metrics.gauge("availability_version", availability::getVersion);
+            metrics.gauge("log_dropped", Log::getDropped);
+            metrics.gauge("listing_version_acked", () -> ackedListingVersion);
+            int metricsPort = config.getIntProperty("metrics_port", 0);
+            if (metricsPort > 0) {
+                metrics.serve(metricsPort);
+                LOG.info("Metrics at http://127.0.0.1:" + metricsPort + "/metrics");
+            }
+            if (Boolean.parseBoolean(config.getProperty("metrics_jmx", "true"))) {
+                metrics.registerMBean();
+            }
+
             // Start threads for communication
             executorService.execute(this::sendHeartbeat);
             executorService.execute(this::listenForUpdates);
             executorService.execute(this::printUpdates);
+            if (fileIndex != null) {
+                executorService.execute(() -> fileIndex.watch(reconcileMillis));
+                executorService.execute(fileIndex::hashPending);
+            }
 
         } catch (Exception e) {
-            e.printStackTrace();
+            LOG.error("Client failed to start", e);
         }
     }
 
@@ -58,17 +109,36 @@ public class Client extends Node {
                 int delay = random.nextInt(30000); // Random delay (0-30s)
                 Thread.sleep(delay);
 
-                String fileListing = getFileListing();
-                Protocol heartbeat = new Protocol(1, false, getNodeId(), System.currentTimeMillis(), 0, fileListing);
-                byte[] data = heartbeat.serialize();
-
-                DatagramPacket packet = new DatagramPacket(data, data.length, InetAddress.getByName(serverIP), serverPort);
-                socket.send(packet);
-
-                System.out.println("[Client " + getIpAddress() + "] Sent heartbeat with file listing.");
-
-            } catch (IOException | InterruptedException e) {
-                e.printStackTrace();
+                // Only the changes since the listing the server acknowledged
+                HeartbeatPayload payload = new HeartbeatPayload();
+                if (fileIndex != null) {
+                    fileIndex.describeSince(ackedListingVersion, payload);
+                } else {
+                    payload.listing = "ERROR: Could not create home directory!";
+                }
+                payload.availabilityEpoch = availability.getEpoch();
+                long serverTimestamp = lastServerTimestamp;
+                if (rttProbe && serverTimestamp >= 0) {
+                    payload.echoTimestamp = serverTimestamp;
+                    payload.echoHoldMillis = (System.nanoTime() - lastServerReceiveNanos) / 1_000_000;
+                }
+
+                // reserve carries the last availability version we applied, so the server can send deltas
+                Protocol heartbeat = new Protocol(1, false, getNodeId(), System.currentTimeMillis(),
+                        availability.getVersion(), payload.format());
+                InetAddress serverAddress = InetAddress.getByName(serverIP);
+                for (ByteBuffer datagram : Fragmenter.split(heartbeat, mtu)) {
+                    socket.send(new DatagramPacket(datagram.array(), datagram.limit(), serverAddress, serverPort));
+                    packetsOut.increment();
+                    bytesOut.add(datagram.limit());
+                }
+
+                LOG.debug("Sent heartbeat with file listing.");
+
+            } catch (IOException e) {
+                LOG.warn("Could not send heartbeat", e);
+            } catch (InterruptedException e) {
+                LOG.warn("Heartbeat sender interrupted", e);
             }
         }
     }
@@ -78,16 +148,38 @@ public class Client extends Node {
      */
     private void listenForUpdates() {
         try {
-            byte[] buffer = new byte[1024];
+            byte[] buffer = new byte[Fragmenter.MAX_DATAGRAM]; // The server's MTU may be larger than ours
             while (true) {
                 DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
                 socket.receive(packet);
-
-                Protocol receivedProtocol = Protocol.deserialize(packet.getData());
-                lastServerUpdate = receivedProtocol.getPayload(); // Store received update for printing
+                packetsIn.increment();
+                bytesIn.add(packet.getLength());
+
+                ByteBuffer message = reassembler.accept(packet.getSocketAddress(),
+                        ByteBuffer.wrap(packet.getData(), 0, packet.getLength()), System.currentTimeMillis());
+                if (message == null) {
+                    continue; // Waiting for more fragments
+                }
+
+                Protocol receivedProtocol;
+                try {
+                    receivedProtocol = Protocol.decode(message);
+                } catch (ProtocolException e) {
+                    decodeFailures.increment();
+                    LOG.warn("Malformed update from " + packet.getSocketAddress() + ": " + e.getMessage());
+                    continue;
+                }
+                lastServerReceiveNanos = System.nanoTime();
+                lastServerTimestamp = receivedProtocol.getTimestamp();
+                if (receivedProtocol.getPayload().equals(HeartbeatPayload.ACK)) {
+                    ackedListingVersion = receivedProtocol.getReserve();
+                    continue;
+                }
+                availability.apply(receivedProtocol.getPayload()); // Store received update for printing
+                updates.increment();
             }
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
+        } catch (IOException e) {
+            LOG.error("Update listener failed", e);
         }
     }
 
@@ -100,40 +192,39 @@ public class Client extends Node {
                 Thread.sleep(30000); // Print every 30 seconds
                 System.out.println("\n[Client " + getIpAddress() + "] Received Update from Server ");
                 System.out.println("--------------------------------------------------");
-                System.out.println(lastServerUpdate);
+                System.out.println(availability.getVersion() == 0 ? "Waiting for updates..." : availability.toString());
                 System.out.println("--------------------------------------------------\n");
             } catch (InterruptedException e) {
-                e.printStackTrace();
+                LOG.warn("Update printer interrupted", e);
             }
         }
     }
 
     /**
-     * Retrieves a file listing from the home directory.
+     * Creates the home directory if needed and builds its file index, with its
+     * hash cache in cacheFile (null = the per-user default).
+     * Returns null if the directory cannot be created.
      */
-    private String getFileListing() {
+    private FileIndex openFileIndex(int logSize, Path cacheFile) {
         File folder = new File(getHomeDirectory());
 
         // If the directory doesn't exist, create it
         if (!folder.exists()) {
-            System.out.println("Home directory not found. Creating: " + getHomeDirectory());
+            LOG.info("Home directory not found. Creating: " + getHomeDirectory());
             boolean created = folder.mkdirs();
             if (created) {
-                System.out.println("Home directory created successfully!");
+                LOG.info("Home directory created successfully!");
             } else {
-                return "ERROR: Could not create home directory!";
+                LOG.error("Could not create home directory!");
+                return null;
             }
         }
 
-        // List files in the directory
-        StringBuilder fileList = new StringBuilder();
-        File[] files = folder.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                fileList.append(file.getName()).append(",");
-            }
-        }
-        return fileList.length() > 0 ? fileList.toString() : "No files available.";
+        Path directory = folder.toPath();
+        FileIndex index = new FileIndex(directory, cacheFile != null ? cacheFile : FileIndex.defaultCacheFile(directory),
+                logSize);
+        index.reconcile();
+        return index;
     }
 
     public static void main(String[] args) {
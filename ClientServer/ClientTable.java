@@ -0,0 +1,185 @@
+package ClientServer;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Active clients in a compact open-addressed table: a client is its node id
+ * (an IPv4 address packed into an int), the address it last sent from
+ * (IPv4 and port packed into a long) and the availability version it last
+ * acknowledged, all in parallel primitive arrays. No objects are kept per
+ * client, so 100k clients cost a few MB and nothing for the GC to trace.
+ *
+ * The table is split into shards keyed by node id, each with its own lock,
+ * so receive threads working on different sockets rarely contend.
+ */
+class ClientTable {
+    private final Shard[] shards;
+
+    ClientTable(int shards) {
+        this.shards = new Shard[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new Shard(1024);
+        }
+    }
+
+    /** Receives each client; address is decoded from the table for the call. */
+    interface Visitor {
+        void visit(int nodeId, InetSocketAddress address, int ackedVersion);
+    }
+
+    // Spreads sequential addresses (10.0.0.1, 10.0.0.2, ...) over shards and slots; ArrivalTable uses it too
+    static int mix(int nodeId) {
+        int h = nodeId * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private Shard shardFor(int nodeId) {
+        return shards[(mix(nodeId) & 0x7fffffff) % shards.length];
+    }
+
+    // nodeId must not be 0 (0.0.0.0 marks empty slots)
+    void update(int nodeId, InetSocketAddress address, int ackedVersion) {
+        shardFor(nodeId).update(nodeId, pack(address), ackedVersion);
+    }
+
+    void remove(int nodeId) {
+        shardFor(nodeId).remove(nodeId);
+    }
+
+    boolean contains(int nodeId) {
+        return shardFor(nodeId).contains(nodeId);
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    // Each shard is visited under its lock, so visitors must not call back into the table
+    void forEach(Visitor visitor) {
+        for (Shard shard : shards) {
+            shard.forEach(visitor);
+        }
+    }
+
+    static int pack(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        if (bytes.length != 4) {
+            throw new IllegalArgumentException("Not an IPv4 address: " + address);
+        }
+        return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF);
+    }
+
+    static long pack(InetSocketAddress address) {
+        return (pack(address.getAddress()) & 0xFFFFFFFFL) << 16 | address.getPort();
+    }
+
+    static InetSocketAddress unpack(long address) {
+        int ip = (int) (address >>> 16);
+        byte[] bytes = {(byte) (ip >>> 24), (byte) (ip >>> 16), (byte) (ip >>> 8), (byte) ip};
+        try {
+            return new InetSocketAddress(InetAddress.getByAddress(bytes), (int) (address & 0xFFFF));
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e); // Only thrown for a bad length
+        }
+    }
+
+    // Linear probing over a power-of-two capacity, with deletion by re-inserting the rest of the run
+    private static final class Shard {
+        private int[] keys;
+        private long[] addresses;
+        private int[] acked;
+        private int size;
+
+        Shard(int capacity) {
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            keys = new int[capacity];
+            addresses = new long[capacity];
+            acked = new int[capacity];
+        }
+
+        private int slotFor(int nodeId) {
+            int mask = keys.length - 1;
+            int slot = mix(nodeId) & mask;
+            while (keys[slot] != 0 && keys[slot] != nodeId) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        synchronized void update(int nodeId, long address, int ackedVersion) {
+            int slot = slotFor(nodeId);
+            if (keys[slot] == 0) {
+                if ((size + 1) * 4 > keys.length * 3) {
+                    grow();
+                    slot = slotFor(nodeId);
+                }
+                keys[slot] = nodeId;
+                size++;
+            }
+            addresses[slot] = address;
+            acked[slot] = ackedVersion;
+        }
+
+        synchronized boolean contains(int nodeId) {
+            return keys[slotFor(nodeId)] != 0;
+        }
+
+        synchronized void remove(int nodeId) {
+            int slot = slotFor(nodeId);
+            if (keys[slot] == 0) {
+                return;
+            }
+            keys[slot] = 0;
+            size--;
+            // Re-insert the rest of the probe run so lookups never stop at the hole
+            int mask = keys.length - 1;
+            for (int next = (slot + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+                int key = keys[next];
+                keys[next] = 0;
+                int target = slotFor(key);
+                keys[target] = key;
+                addresses[target] = addresses[next];
+                acked[target] = acked[next];
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized void forEach(Visitor visitor) {
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] != 0) {
+                    visitor.visit(keys[slot], unpack(addresses[slot]), acked[slot]);
+                }
+            }
+        }
+
+        private void grow() {
+            int[] oldKeys = keys, oldAcked = acked;
+            long[] oldAddresses = addresses;
+            allocate(oldKeys.length * 2);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = slotFor(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    addresses[slot] = oldAddresses[i];
+                    acked[slot] = oldAcked[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package ClientServer;
+
+import java.util.Arrays;
+
+/**
+ * Hashed timing wheel that tracks a deadline per node.
+ *
+ * touch() moves a node to the slot of its new deadline in O(1), and
+ * advance() only walks the slots for ticks that have passed since the last
+ * call, so expiry costs O(expired) instead of a scan of every node.
+ * A node is reported at most one tick after its deadline.
+ * Nodes are keyed by int id (a packed IPv4 address for the server, the peer
+ * id for PeerToPeer.Peer), so touching one allocates nothing.
+ */
+public class ExpiryWheel {
+    private static final int[] NONE = new int[0];
+
+    private final long tickMillis;
+    private final Entry[] slots; // Head of a doubly linked list per slot
+    private final int mask;
+    private final IntMap<Entry> entries = new IntMap<>(1024);
+    private long currentTick; // Last tick that has been processed
+
+    /**
+     * @param tickMillis resolution of the wheel
+     * @param spanMillis typical timeout; the wheel gets enough slots to cover it in one turn
+     */
+    public ExpiryWheel(long tickMillis, long spanMillis, long nowMillis) {
+        this.tickMillis = tickMillis;
+        int size = Integer.highestOneBit((int) Math.max(2, spanMillis / tickMillis + 2) - 1) << 1;
+        this.slots = new Entry[size];
+        this.mask = size - 1;
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * Sets (or moves) the deadline of key.
+     */
+    public synchronized void touch(int key, long deadlineMillis) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(key);
+            entries.put(key, entry);
+        } else {
+            unlink(entry);
+        }
+        // A deadline whose tick was already processed goes into the next one
+        entry.deadlineTick = Math.max(deadlineMillis / tickMillis, currentTick + 1);
+        link(entry);
+    }
+
+    public synchronized boolean remove(int key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        unlink(entry);
+        return true;
+    }
+
+    public synchronized boolean contains(int key) {
+        return entries.get(key) != null;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Processes every tick that has fully elapsed by nowMillis and returns the
+     * keys whose deadlines fell in them. Expired keys are removed from the wheel.
+     */
+    public synchronized int[] advance(long nowMillis) {
+        long lastTick = nowMillis / tickMillis - 1;
+        if (lastTick <= currentTick) {
+            return NONE;
+        }
+        int[] expired = NONE;
+        int count = 0;
+        // After a long pause one full turn is enough to see every slot
+        long firstTick = Math.max(currentTick + 1, lastTick - mask);
+        for (long tick = firstTick; tick <= lastTick; tick++) {
+            Entry entry = slots[(int) (tick & mask)];
+            while (entry != null) {
+                Entry next = entry.next;
+                if (entry.deadlineTick <= lastTick) {
+                    unlink(entry);
+                    entries.remove(entry.key);
+                    if (count == expired.length) {
+                        expired = Arrays.copyOf(expired, Math.max(16, count * 2));
+                    }
+                    expired[count++] = entry.key;
+                }
+                entry = next;
+            }
+        }
+        currentTick = lastTick;
+        return count == expired.length ? expired : Arrays.copyOf(expired, count);
+    }
+
+    private void link(Entry entry) {
+        int slot = (int) (entry.deadlineTick & mask);
+        entry.prev = null;
+        entry.next = slots[slot];
+        if (entry.next != null) {
+            entry.next.prev = entry;
+        }
+        slots[slot] = entry;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            slots[(int) (entry.deadlineTick & mask)] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = entry.next = null;
+    }
+
+    private static final class Entry {
+        final int key;
+        long deadlineTick;
+        Entry prev, next;
+
+        Entry(int key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package ClientServer;
+
+import java.util.*;
+
+/**
+ * Compares the fixed 30s timeout against the phi-accrual detector in virtual time.
+ *
+ * Each simulated node sends heartbeats with the given interval pattern plus
+ * network jitter, then dies at a random point. For each detector we count
+ * false suspicions (a deadline that passed while the node was still alive)
+ * and how long after the death the node was declared dead, rounded up to
+ * the monitor tick like the real server does.
+ *
+ * Usage: java ClientServer.FailureDetectorSimulation [nodes] [threshold] [acceptablePauseMillis]
+ */
+public class FailureDetectorSimulation {
+    private static final long TIMEOUT = 30000;
+    private static final long TICK = 1000;
+
+    interface IntervalModel {
+        long next(Random random);
+    }
+
+    public static void main(String[] args) {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        double threshold = args.length > 1 ? Double.parseDouble(args[1]) : 8.0;
+        long pause = args.length > 2 ? Long.parseLong(args[2]) : 3000;
+
+        Map<String, IntervalModel> scenarios = new LinkedHashMap<>();
+        scenarios.put("uniform 0-30s (Client.sendHeartbeat)", r -> r.nextInt(30000));
+        scenarios.put("steady 5s +/- 250ms", r -> 5000 + (long) (r.nextGaussian() * 250));
+        scenarios.put("steady 2s, 1% 8s stalls", r -> r.nextInt(100) == 0 ? 8000 : 2000);
+        scenarios.put("uniform 10-20s", r -> 10000 + r.nextInt(10000));
+
+        System.out.printf("%-38s %-8s %12s %12s %12s %14s%n",
+                "scenario", "detector", "mean detect", "p99 detect", "max detect", "false/1k hb");
+        for (Map.Entry<String, IntervalModel> scenario : scenarios.entrySet()) {
+            run(scenario.getKey(), scenario.getValue(), nodes, null);
+            run(scenario.getKey(), scenario.getValue(), nodes,
+                    new PhiAccrualDetector(100, threshold, 500, pause, TIMEOUT));
+        }
+    }
+
+    private static void run(String name, IntervalModel model, int nodes, PhiAccrualDetector phi) {
+        Random random = new Random(42); // Same heartbeat trace for both detectors
+        long[] detection = new long[nodes];
+        long heartbeats = 0, falseSuspicions = 0;
+
+        for (int node = 0; node < nodes; node++) {
+            int beats = 50 + random.nextInt(200);
+            long now = 0;
+            long deadline = phi != null ? phi.heartbeat(node, now) : now + TIMEOUT;
+            for (int i = 0; i < beats; i++) {
+                long arrival = now + Math.max(0, model.next(random)) + random.nextInt(50); // Network jitter
+                if (roundToTick(deadline) < arrival) {
+                    falseSuspicions++; // Declared dead although still alive; it rejoins on this heartbeat
+                }
+                now = arrival;
+                deadline = phi != null ? phi.heartbeat(node, now) : now + TIMEOUT;
+                heartbeats++;
+            }
+            long death = now + (long) (random.nextDouble() * Math.max(1, model.next(random)));
+            detection[node] = Math.max(0, roundToTick(deadline) - death);
+            if (phi != null) {
+                phi.remove(node);
+            }
+        }
+
+        Arrays.sort(detection);
+        double mean = Arrays.stream(detection).average().orElse(0);
+        System.out.printf("%-38s %-8s %10.1fs %10.1fs %10.1fs %14.3f%n", name,
+                phi != null ? "phi " + (int) phi.getThreshold() : "fixed",
+                mean / 1000.0, detection[(int) (nodes * 0.99)] / 1000.0, detection[nodes - 1] / 1000.0,
+                heartbeats == 0 ? 0 : 1000.0 * falseSuspicions / heartbeats);
+    }
+
+    // The monitor only notices a deadline at the end of the tick it falls in
+    private static long roundToTick(long deadline) {
+        return (deadline / TICK + 1) * TICK;
+    }
+}
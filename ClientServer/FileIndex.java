@@ -0,0 +1,358 @@
+package ClientServer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Incremental index of the files in a client's home directory.
+ *
+ * A WatchService keeps the index current as files are created, modified and
+ * deleted, and a periodic reconciliation scan repairs anything the watcher
+ * missed (overflow, events lost while the directory was being replaced).
+ * Every change bumps the version and is kept in a bounded log, so a heartbeat
+ * can carry just the changes since the listing version the server acknowledged.
+ *
+ * Each file is listed as an entry "name|size|mtime|sha256". Hashes are
+ * computed in the background by hashPending(), so a new file is first listed
+ * with an empty hash, and are cached in a file outside the directory (inside
+ * it the cache would be shared like any other file) so a restart only rehashes
+ * files whose size or mtime changed. The cache file is the client's
+ * hash_cache_file, by default one per directory under ~/.cache/hac; if it
+ * cannot be written, hashes are kept in memory only.
+ */
+class FileIndex {
+    private static final Log LOG = Log.get("FileIndex");
+    static final String HASH_CACHE = ".hac-index";
+    static final char FIELD = '|';
+
+    private final Path directory;
+    private final Path cacheFile;
+    private final TreeMap<String, String> entries = new TreeMap<>(); // name -> listing entry
+
+    // Change log as a ring of parallel arrays, oldest entry at head
+    private final int[] changeVersion;
+    private final boolean[] changeAdded;
+    private final String[] changeEntry;
+    private int head, count;
+    private int version;
+
+    // Persistent name -> (size, mtime, hash) cache and the files still waiting to be hashed
+    private final Map<String, String[]> hashCache = new HashMap<>();
+    private final BlockingQueue<String> hashQueue = new LinkedBlockingQueue<>();
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    private boolean cacheDirty;
+    private boolean cacheWritable = true; // Cleared by the first failed write, so it is not retried every batch
+
+    FileIndex(Path directory, Path cacheFile, int logSize) {
+        this.directory = directory;
+        this.cacheFile = cacheFile;
+        this.changeVersion = new int[logSize];
+        this.changeAdded = new boolean[logSize];
+        this.changeEntry = new String[logSize];
+        loadHashCache();
+    }
+
+    // "~/.cache/hac/<name>-<hash of the absolute path>.hac-index" ($XDG_CACHE_HOME instead of ~/.cache if set)
+    static Path defaultCacheFile(Path directory) {
+        Path absolute = directory.toAbsolutePath().normalize();
+        String xdg = System.getenv("XDG_CACHE_HOME");
+        Path base = xdg != null && !xdg.isEmpty()
+                ? Paths.get(xdg) : Paths.get(System.getProperty("user.home"), ".cache");
+        String name = absolute.getFileName() != null ? absolute.getFileName().toString() : "root";
+        return base.resolve("hac").resolve(name + "-" + Integer.toHexString(absolute.toString().hashCode()) + HASH_CACHE);
+    }
+
+    synchronized int getVersion() {
+        return version;
+    }
+
+    /**
+     * Full directory scan, diffed against the index. Returns the number of changes found.
+     */
+    synchronized int reconcile() {
+        Map<String, BasicFileAttributes> present = new TreeMap<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(directory)) {
+            for (Path path : dir) {
+                String name = path.getFileName().toString();
+                if (!name.startsWith(HASH_CACHE)) { // Nor is a cache left in the directory by older versions
+                    present.put(name, Files.readAttributes(path, BasicFileAttributes.class));
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not scan " + directory, e);
+            return 0;
+        }
+
+        int changes = 0;
+        for (Iterator<Map.Entry<String, String>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, String> entry = it.next();
+            if (!present.containsKey(entry.getKey())) {
+                it.remove();
+                record(false, entry.getValue());
+                changes++;
+            }
+        }
+        for (Map.Entry<String, BasicFileAttributes> file : present.entrySet()) {
+            if (upsert(file.getKey(), file.getValue())) {
+                changes++;
+            }
+        }
+        return changes;
+    }
+
+    // Watch events: created or modified
+    synchronized void changed(String name) {
+        if (name.startsWith(HASH_CACHE)) {
+            return;
+        }
+        try {
+            upsert(name, Files.readAttributes(directory.resolve(name), BasicFileAttributes.class));
+        } catch (NoSuchFileException e) {
+            removed(name);
+        } catch (IOException e) {
+            LOG.warn("Could not read attributes of " + name, e);
+        }
+    }
+
+    synchronized void removed(String name) {
+        String entry = entries.remove(name);
+        if (entry != null) {
+            record(false, entry);
+        }
+    }
+
+    // Lists the file with whatever hash we know for this size and mtime, queueing it for hashing if none
+    private boolean upsert(String name, BasicFileAttributes attributes) {
+        long size = attributes.isDirectory() ? 0 : attributes.size();
+        long mtime = attributes.lastModifiedTime().toMillis();
+        String hash = "";
+        if (attributes.isDirectory()) {
+            hash = "dir";
+        } else {
+            String[] cached = hashCache.get(name);
+            if (cached != null && cached[0].equals(Long.toString(size)) && cached[1].equals(Long.toString(mtime))) {
+                hash = cached[2];
+            } else if (queued.add(name)) {
+                hashQueue.add(name);
+            }
+        }
+        return put(name, entry(name, size, mtime, hash));
+    }
+
+    // Replaces a file's entry; a changed entry is logged as remove old + add new
+    private boolean put(String name, String entry) {
+        String previous = entries.put(name, entry);
+        if (entry.equals(previous)) {
+            return false;
+        }
+        if (previous != null) {
+            record(false, previous);
+        }
+        record(true, entry);
+        return true;
+    }
+
+    static String entry(String name, long size, long mtime, String hash) {
+        return name + FIELD + size + FIELD + mtime + FIELD + hash;
+    }
+
+    /**
+     * Fills in the listing part of a heartbeat for a server that acknowledged
+     * ackedVersion (-1 = nothing acknowledged): a delta when the log still
+     * covers it, otherwise the full listing.
+     */
+    synchronized void describeSince(int ackedVersion, HeartbeatPayload payload) {
+        payload.listVersion = version;
+        int oldest = count == 0 ? version + 1 : changeVersion[head];
+        if (ackedVersion < 0 || ackedVersion > version || ackedVersion + 1 < oldest) {
+            payload.listBase = -1;
+            StringBuilder listing = new StringBuilder();
+            for (String entry : entries.values()) {
+                listing.append(entry).append(',');
+            }
+            payload.listing = listing.toString();
+            return;
+        }
+
+        payload.listBase = ackedVersion;
+        StringBuilder delta = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            int slot = (head + i) % changeVersion.length;
+            if (changeVersion[slot] > ackedVersion) {
+                delta.append(changeAdded[slot] ? '+' : '-').append(changeEntry[slot]).append('\n');
+            }
+        }
+        payload.listing = delta.toString();
+    }
+
+    /**
+     * Watches the directory until interrupted, running a reconciliation scan
+     * every reconcileMillis and whenever the watcher overflows.
+     */
+    void watch(long reconcileMillis) {
+        try (WatchService watcher = directory.getFileSystem().newWatchService()) {
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            reconcile(); // Registering first means nothing created after this scan is missed
+            long nextReconcile = System.nanoTime() + reconcileMillis * 1_000_000;
+
+            while (true) {
+                long waitNanos = nextReconcile - System.nanoTime();
+                WatchKey key = waitNanos > 0 ? watcher.poll(waitNanos, TimeUnit.NANOSECONDS) : null;
+                if (key == null) {
+                    reconcile();
+                    nextReconcile = System.nanoTime() + reconcileMillis * 1_000_000;
+                    continue;
+                }
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        reconcile();
+                        continue;
+                    }
+                    String name = ((Path) event.context()).getFileName().toString();
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        removed(name);
+                    } else {
+                        changed(name);
+                    }
+                }
+                if (!key.reset()) {
+                    LOG.warn("Home directory is no longer accessible: " + directory);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("Stopped watching " + directory, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hashes queued files until interrupted. Files are re-checked just before
+     * hashing and the result is only used if size and mtime did not change meanwhile.
+     */
+    void hashPending() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            while (true) {
+                String name = hashQueue.take();
+                queued.remove(name);
+                Path path = directory.resolve(name);
+                try {
+                    BasicFileAttributes before = Files.readAttributes(path, BasicFileAttributes.class);
+                    String hash = hash(path, digest, buffer);
+                    BasicFileAttributes after = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (before.size() == after.size() && before.lastModifiedTime().equals(after.lastModifiedTime())) {
+                        hashed(name, after.size(), after.lastModifiedTime().toMillis(), hash);
+                    }
+                } catch (NoSuchFileException e) {
+                    // Deleted before we got to it
+                } catch (IOException e) {
+                    LOG.warn("Could not hash " + name, e);
+                }
+                if (hashQueue.isEmpty()) {
+                    saveHashCache();
+                }
+            }
+        } catch (NoSuchAlgorithmException e) {
+            LOG.error("SHA-256 is not available, files will be listed without hashes", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void hashed(String name, long size, long mtime, String hash) {
+        hashCache.put(name, new String[] {Long.toString(size), Long.toString(mtime), hash});
+        cacheDirty = true;
+        String current = entries.get(name);
+        if (current != null && current.equals(entry(name, size, mtime, ""))) {
+            put(name, entry(name, size, mtime, hash));
+        }
+    }
+
+    private static String hash(Path path, MessageDigest digest, ByteBuffer buffer) throws IOException {
+        digest.reset();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    // Cache file format: one "size<TAB>mtime<TAB>hash<TAB>name" line per file
+    private void loadHashCache() {
+        if (!Files.exists(cacheFile)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 4);
+                if (parts.length == 4) {
+                    hashCache.put(parts[3], new String[] {parts[0], parts[1], parts[2]});
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not read hash cache " + cacheFile + ", rehashing", e);
+        }
+    }
+
+    private synchronized void saveHashCache() {
+        if (!cacheDirty || !cacheWritable) {
+            return;
+        }
+        hashCache.keySet().retainAll(entries.keySet()); // Forget deleted files
+        Path temp = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        try {
+            if (cacheFile.getParent() != null) {
+                Files.createDirectories(cacheFile.getParent());
+            }
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, String[]> cached : hashCache.entrySet()) {
+                    String[] value = cached.getValue();
+                    writer.write(value[0] + '\t' + value[1] + '\t' + value[2] + '\t' + cached.getKey());
+                    writer.newLine();
+                }
+            }
+            Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            cacheDirty = false;
+        } catch (IOException e) {
+            cacheWritable = false;
+            LOG.warn("Could not write hash cache " + cacheFile + ", keeping hashes in memory only"
+                    + " (set hash_cache_file to a writable path)", e);
+        }
+    }
+
+    private void record(boolean added, String entry) {
+        version++;
+        int slot;
+        if (count < changeVersion.length) {
+            slot = (head + count) % changeVersion.length;
+            count++;
+        } else {
+            slot = head; // Overwrite the oldest change
+            head = (head + 1) % changeVersion.length;
+        }
+        changeVersion[slot] = version;
+        changeAdded[slot] = added;
+        changeEntry[slot] = entry;
+    }
+}
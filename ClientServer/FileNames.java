@@ -0,0 +1,146 @@
+package ClientServer;
+
+import java.util.Arrays;
+
+/**
+ * Dictionary of the file names held by any client, each stored once and
+ * referred to by a small int id.
+ *
+ * Ids are reference counted: every holding and every change-log entry that
+ * mentions a name retains its id, and the id (and the String) is freed for
+ * reuse when the last reference is released. Memory therefore grows with the
+ * number of distinct files, not with how many clients hold them.
+ *
+ * Lookups hash a region of a listing directly, so a name that is already
+ * known costs no substring. The index is open-addressed over the ids, like
+ * ArrivalTable. Not thread-safe; AvailabilityState guards it.
+ */
+class FileNames {
+    private String[] names = new String[256];  // id -> name, null = free
+    private int[] references = new int[256];
+    private int[] freeIds = new int[16];       // Stack of released ids
+    private int freeCount;
+    private int nextId;                        // Ids below this have been handed out at least once
+    private int[] index = new int[512];        // Open-addressed, id + 1 per slot, 0 = empty
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * Id of text[start, end), or -1 if no client holds that name.
+     */
+    int find(CharSequence text, int start, int end) {
+        return index[slotFor(text, start, end)] - 1;
+    }
+
+    /**
+     * Id of text[start, end), adding the name if it is new; takes one reference.
+     */
+    int acquire(CharSequence text, int start, int end) {
+        int slot = slotFor(text, start, end);
+        int id = index[slot] - 1;
+        if (id < 0) {
+            if ((size + 1) * 4 > index.length * 3) {
+                rehash(index.length * 2);
+                slot = slotFor(text, start, end);
+            }
+            id = allocate(text.subSequence(start, end).toString());
+            index[slot] = id + 1;
+            size++;
+        }
+        references[id]++;
+        return id;
+    }
+
+    void retain(int id) {
+        references[id]++;
+    }
+
+    void release(int id) {
+        if (--references[id] > 0) {
+            return;
+        }
+        String name = names[id];
+        removeFromIndex(slotFor(name, 0, name.length()));
+        names[id] = null;
+        size--;
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+        freeIds[freeCount++] = id;
+    }
+
+    private int allocate(String name) {
+        int id;
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+        } else {
+            id = nextId++;
+            if (id == names.length) {
+                names = Arrays.copyOf(names, id * 2);
+                references = Arrays.copyOf(references, id * 2);
+            }
+        }
+        names[id] = name;
+        return id;
+    }
+
+    private static int hash(CharSequence text, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + text.charAt(i); // Same as String.hashCode() of the region
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(String name, CharSequence text, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != text.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Slot holding the name, or the empty slot where it would go
+    private int slotFor(CharSequence text, int start, int end) {
+        int mask = index.length - 1;
+        int slot = hash(text, start, end) & mask;
+        while (index[slot] != 0 && !matches(names[index[slot] - 1], text, start, end)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void removeFromIndex(int slot) {
+        index[slot] = 0;
+        // Re-insert the rest of the probe run so lookups never stop at the hole
+        int mask = index.length - 1;
+        for (int next = (slot + 1) & mask; index[next] != 0; next = (next + 1) & mask) {
+            int entry = index[next];
+            index[next] = 0;
+            String name = names[entry - 1];
+            index[slotFor(name, 0, name.length())] = entry;
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[] old = index;
+        index = new int[capacity];
+        for (int entry : old) {
+            if (entry != 0) {
+                String name = names[entry - 1];
+                index[slotFor(name, 0, name.length())] = entry;
+            }
+        }
+    }
+}
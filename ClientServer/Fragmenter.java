@@ -0,0 +1,72 @@
+package ClientServer;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits encoded messages that do not fit in one datagram.
+ *
+ * A message that fits in the MTU is sent as-is. Larger ones are cut into
+ * fragments, each carrying a 12-byte header: magic, messageId, index, count.
+ * The magic cannot be confused with a plain message, which starts with a
+ * small protocol version number.
+ * Shared by Server, Client and PeerToPeer.Peer.
+ */
+public class Fragmenter {
+    static final int MAGIC = 0x48414346; // "HACF"
+    static final int HEADER_SIZE = Integer.BYTES * 2 + Short.BYTES * 2;
+    static final int MAX_FRAGMENTS = 0xFFFF;
+    // Receive buffer size: the largest UDP datagram, so a sender with a bigger MTU is never truncated
+    public static final int MAX_DATAGRAM = 64 * 1024;
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    private Fragmenter() {
+    }
+
+    public static boolean isFragment(ByteBuffer datagram) {
+        return datagram.remaining() >= HEADER_SIZE && datagram.getInt(datagram.position()) == MAGIC;
+    }
+
+    /**
+     * Encodes message and returns the datagrams to send, each ready to write from position 0.
+     */
+    static List<ByteBuffer> split(Protocol message, int mtu) {
+        return split(message.serialize(), mtu);
+    }
+
+    /**
+     * Same for a message that is already encoded (e.g. a PeerToPeer.Protocol).
+     */
+    public static List<ByteBuffer> split(byte[] encoded, int mtu) {
+        if (mtu <= HEADER_SIZE) {
+            throw new IllegalArgumentException("MTU " + mtu + " leaves no room after the " + HEADER_SIZE + "-byte fragment header");
+        }
+        if (encoded.length <= mtu) {
+            return Collections.singletonList(ByteBuffer.wrap(encoded));
+        }
+
+        int chunkSize = mtu - HEADER_SIZE;
+        int count = (encoded.length + chunkSize - 1) / chunkSize;
+        if (count > MAX_FRAGMENTS) {
+            throw new IllegalArgumentException("Message of " + encoded.length + " bytes needs too many fragments at MTU " + mtu);
+        }
+
+        int messageId = NEXT_ID.incrementAndGet();
+        List<ByteBuffer> fragments = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) {
+            int offset = index * chunkSize;
+            int length = Math.min(chunkSize, encoded.length - offset);
+            ByteBuffer fragment = ByteBuffer.allocate(HEADER_SIZE + length);
+            fragment.putInt(MAGIC);
+            fragment.putInt(messageId);
+            fragment.putShort((short) index);
+            fragment.putShort((short) count);
+            fragment.put(encoded, offset, length);
+            fragment.flip();
+            fragments.add(fragment);
+        }
+        return fragments;
+    }
+}
@@ -0,0 +1,24 @@
+package ClientServer;
+
+import java.net.InetSocketAddress;
+
+/**
+ * A decoded message together with the address it arrived from and the
+ * server's System.nanoTime() and wall-clock time when it was read, handed
+ * from the receive loop to the worker threads. Both are taken at read time,
+ * so time spent waiting in the worker queue counts toward neither liveness
+ * nor the clock estimates.
+ */
+class Heartbeat {
+    final Protocol message;
+    final InetSocketAddress source;
+    final long receivedNanos;
+    final long receivedMillis;
+
+    Heartbeat(Protocol message, InetSocketAddress source, long receivedNanos, long receivedMillis) {
+        this.message = message;
+        this.source = source;
+        this.receivedNanos = receivedNanos;
+        this.receivedMillis = receivedMillis;
+    }
+}
@@ -0,0 +1,82 @@
+package ClientServer;
+
+/**
+ * Payload of a client heartbeat: optional control lines starting with '@',
+ * followed by the file listing.
+ *
+ *   @echo <serverTimestamp> <holdMillis>   timestamp of the last server update and how long
+ *                                          the client held it before this heartbeat (for RTT)
+ *   @list <version>                        listing is the full comma-separated list at version
+ *   @list <version> <base>                 listing is "+entry" / "-entry" lines taking base to version
+ *   @epoch <epoch>                         epoch of the availability version in the reserve field;
+ *                                          without it (or with a stale one) the server sends a snapshot
+ *
+ * Listing entries are "name|size|mtime|sha256" (see FileIndex); the hash is empty
+ * until the client has computed it. The server treats entries as opaque strings,
+ * so a changed file shows up as the old entry removed and the new one added.
+ * Payloads without control lines are a bare listing, as sent by older clients.
+ * The server answers listing updates with an @ack message whose reserve field
+ * holds the listing version it now has (-1 = send the full listing).
+ * A message whose whole payload is @stats is not a heartbeat: the server replies
+ * with "@stats key=value ..." counters (used by LoadGenerator).
+ */
+class HeartbeatPayload {
+    static final String ECHO = "@echo";
+    static final String LIST = "@list";
+    static final String ACK = "@ack";
+    static final String STATS = "@stats";
+    static final String EPOCH = "@epoch";
+
+    long echoTimestamp = -1; // -1 = no echo
+    long echoHoldMillis;
+    int listVersion = -1; // -1 = unversioned bare listing
+    int listBase = -1; // -1 = full listing, otherwise the version the delta applies to
+    int availabilityEpoch; // 0 = none
+    String listing = "";
+
+    static HeartbeatPayload parse(String payload) {
+        HeartbeatPayload parsed = new HeartbeatPayload();
+        int start = 0;
+        while (start < payload.length() && payload.charAt(start) == '@') {
+            int end = payload.indexOf('\n', start);
+            if (end < 0) {
+                end = payload.length();
+            }
+            String[] parts = payload.substring(start, end).split(" ");
+            try {
+                if (parts[0].equals(ECHO) && parts.length == 3) {
+                    parsed.echoTimestamp = Long.parseLong(parts[1]);
+                    parsed.echoHoldMillis = Long.parseLong(parts[2]);
+                } else if (parts[0].equals(LIST) && parts.length >= 2) {
+                    parsed.listVersion = Integer.parseInt(parts[1]);
+                    parsed.listBase = parts.length > 2 ? Integer.parseInt(parts[2]) : -1;
+                } else if (parts[0].equals(EPOCH) && parts.length == 2) {
+                    parsed.availabilityEpoch = Integer.parseInt(parts[1]);
+                }
+            } catch (NumberFormatException e) {
+                // Ignore a malformed control line
+            }
+            start = end + 1;
+        }
+        parsed.listing = start < payload.length() ? payload.substring(start) : "";
+        return parsed;
+    }
+
+    String format() {
+        StringBuilder payload = new StringBuilder();
+        if (echoTimestamp >= 0) {
+            payload.append(ECHO).append(' ').append(echoTimestamp).append(' ').append(echoHoldMillis).append('\n');
+        }
+        if (availabilityEpoch != 0) {
+            payload.append(EPOCH).append(' ').append(availabilityEpoch).append('\n');
+        }
+        if (listVersion >= 0) {
+            payload.append(LIST).append(' ').append(listVersion);
+            if (listBase >= 0) {
+                payload.append(' ').append(listBase);
+            }
+            payload.append('\n');
+        }
+        return payload.append(listing).toString();
+    }
+}
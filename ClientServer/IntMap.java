@@ -0,0 +1,106 @@
+package ClientServer;
+
+/**
+ * Map from int keys (packed node ids) to objects, so per-node state can be
+ * looked up on every heartbeat without formatting or boxing the id.
+ *
+ * Linear probing over a power-of-two capacity, with deletion by re-inserting
+ * the rest of the run, like ClientTable; a null value marks an empty slot, so
+ * every int is a valid key. Not thread-safe; owners guard it.
+ */
+final class IntMap<V> {
+    private int[] keys;
+    private V[] values;
+    private int size;
+
+    /** Receives each entry of the map. */
+    interface Visitor<V> {
+        void visit(int key, V value);
+    }
+
+    IntMap(int expected) {
+        allocate(Integer.highestOneBit(Math.max(16, expected * 2) - 1) << 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = (V[]) new Object[capacity];
+    }
+
+    private int slotFor(int key) {
+        int mask = keys.length - 1;
+        int slot = ClientTable.mix(key) & mask;
+        while (values[slot] != null && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    int size() {
+        return size;
+    }
+
+    V get(int key) {
+        return values[slotFor(key)];
+    }
+
+    /**
+     * Maps key to value (which must not be null) and returns the previous value, if any.
+     */
+    V put(int key, V value) {
+        int slot = slotFor(key);
+        V previous = values[slot];
+        if (previous == null) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                grow();
+                slot = slotFor(key);
+            }
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+        return previous;
+    }
+
+    V remove(int key) {
+        int slot = slotFor(key);
+        V removed = values[slot];
+        if (removed == null) {
+            return null;
+        }
+        values[slot] = null;
+        size--;
+        // Re-insert the rest of the probe run so lookups never stop at the hole
+        int mask = keys.length - 1;
+        for (int next = (slot + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+            V value = values[next];
+            values[next] = null;
+            int target = slotFor(keys[next]);
+            keys[target] = keys[next];
+            values[target] = value;
+        }
+        return removed;
+    }
+
+    void forEach(Visitor<V> visitor) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (values[slot] != null) {
+                visitor.visit(keys[slot], values[slot]);
+            }
+        }
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        V[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = slotFor(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
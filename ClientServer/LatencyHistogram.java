@@ -0,0 +1,111 @@
+package ClientServer;
+
+/**
+ * Log-linear histogram of non-negative values (HdrHistogram style): every
+ * power of two is split into 32 linear buckets, so any recorded value is
+ * reported within about 3% using a fixed array of counts, however large the
+ * range. Not thread-safe; give each recording thread its own and merge.
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // Values below this are exact
+    private static final int HALF = SUB_BUCKETS / 2; // Linear buckets per power of two above that
+
+    private final long[] counts = new long[SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * HALF];
+    private long total;
+    private long max;
+    private double sum;
+
+    // Histogram over the given bucket counts (laid out as index() assigns them)
+    static LatencyHistogram of(long[] counts, double sum, long max) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < counts.length; i++) {
+            histogram.counts[i] = counts[i];
+            histogram.total += counts[i];
+        }
+        histogram.sum = sum;
+        histogram.max = max;
+        return histogram;
+    }
+
+    void record(long value) {
+        value = Math.max(0, value);
+        counts[index(value)]++;
+        total++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    void merge(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    long getCount() { return total; }
+    long getMax() { return max; }
+    double getMean() { return total == 0 ? 0 : sum / total; }
+
+    // Smallest recorded value v such that a fraction p (0..1) of all values is <= v, to bucket precision
+    long percentile(double p) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, highestValue(i));
+            }
+        }
+        return max;
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+    static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF + 1;
+        long mantissa = (index - SUB_BUCKETS) % HALF + HALF;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    // "index:count,..." of the non-empty buckets, followed by ";sum;max", for sending between processes
+    String encode() {
+        StringBuilder encoded = new StringBuilder();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                encoded.append(i).append(':').append(counts[i]).append(',');
+            }
+        }
+        return encoded.append(';').append(sum).append(';').append(max).toString();
+    }
+
+    static LatencyHistogram decode(String encoded) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        String[] parts = encoded.split(";");
+        for (String bucket : parts[0].split(",")) {
+            if (!bucket.isEmpty()) {
+                int colon = bucket.indexOf(':');
+                long count = Long.parseLong(bucket.substring(colon + 1));
+                histogram.counts[Integer.parseInt(bucket.substring(0, colon))] += count;
+                histogram.total += count;
+            }
+        }
+        histogram.sum = Double.parseDouble(parts[1]);
+        histogram.max = Long.parseLong(parts[2]);
+        return histogram;
+    }
+}
@@ -0,0 +1,395 @@
+package ClientServer;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulates a fleet of clients against a running Server for capacity planning.
+ *
+ * All simulated clients of one process share a single DatagramChannel; each
+ * puts its own IPv4 id (10.x.y.z) in the message header, so the server must
+ * run with node_id=header. Heartbeats go out evenly paced at the configured
+ * rate. A client's first heartbeat carries its listing, later ones the same
+ * listing again (payloadBytes > 0, like older clients) or an empty delta.
+ * Churn replaces that many clients per second with new ids, which the server
+ * sees as joins now and as expiries 30 seconds later.
+ *
+ * Reported at the end:
+ *   - server ingest: heartbeats the server processed per second and the share
+ *     of ours it never applied, from its @stats counters before and after
+ *   - broadcast fan-out latency: for every update delivered to a simulated
+ *     client, the time from the server starting the broadcast (the message
+ *     timestamp, same host clock) to the update's last datagram arriving
+ *
+ * With processes > 1 the clients are split over that many JVMs (this one and
+ * processes - 1 children), each with its own socket, and the results are merged.
+ *
+ * Usage: java ClientServer.LoadGenerator [server host:port] [clients] [intervalMs] [payloadBytes]
+ *                                        [churnPerSecond] [seconds] [processes]
+ *   e.g. java ClientServer.LoadGenerator 127.0.0.1:5000 20000 1000 0 50 60 2
+ */
+public class LoadGenerator {
+    private static final String RESULT = "RESULT ";
+    private static final int MTU = 1200;
+    private static final long DRAIN_MILLIS = 2000; // Let the server's queue empty before the final @stats
+    private static final long STATS_TIMEOUT = 10000;
+    private static final int MAX_FRAGMENTED = 256; // Updates whose last fragment may still come; older ones were lost
+
+    private final InetSocketAddress server;
+    private final int clients;
+    private final long intervalMillis;
+    private final int payloadBytes;
+    private final int churnPerSecond;
+    private final int firstClient;
+    private final int stride; // Distance between successive ids of one client slot (all clients of all processes)
+
+    private final DatagramChannel channel;
+    private final int[] ids; // Current id per client slot
+    private final boolean[] joined; // Whether the slot's current id has sent its listing
+    private final String[] listings; // Listing per slot, built on first use
+
+    private volatile int availabilityVersion; // Latest version seen in a broadcast, echoed in reserve
+    private volatile int availabilityEpoch; // Server epoch that version belongs to, sent as @epoch
+    private volatile long lastServerTimestamp = -1;
+    private volatile long lastServerReceiveNanos;
+    private volatile String lastStats;
+    private Thread receiver;
+
+    // Owned by the receive thread
+    private final LatencyHistogram fanOut = new LatencyHistogram();
+    private final Map<Integer, Long> fragmentedTimestamps = new LinkedHashMap<>() { // Fragmented update id -> timestamp
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Long> eldest) {
+            return size() > MAX_FRAGMENTED;
+        }
+    };
+    private long updatesReceived;
+
+    // Owned by the send thread
+    private long heartbeatsSent;
+    private long sendFailures;
+
+    LoadGenerator(InetSocketAddress server, int clients, long intervalMillis, int payloadBytes, int churnPerSecond,
+                  int firstClient, int stride) throws IOException {
+        if (clients <= 0 || intervalMillis <= 0) {
+            throw new IllegalArgumentException("Need at least one client and a positive interval, got " + clients
+                    + " clients every " + intervalMillis + " ms");
+        }
+        this.server = server;
+        this.clients = clients;
+        this.intervalMillis = intervalMillis;
+        this.payloadBytes = payloadBytes;
+        this.churnPerSecond = churnPerSecond;
+        this.firstClient = firstClient;
+        this.stride = stride;
+        this.ids = new int[clients];
+        this.joined = new boolean[clients];
+        this.listings = new String[clients];
+        for (int slot = 0; slot < clients; slot++) {
+            ids[slot] = firstClient + slot;
+        }
+        channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, 8 * 1024 * 1024);
+        channel.setOption(StandardSocketOptions.SO_SNDBUF, 4 * 1024 * 1024);
+        channel.bind(new InetSocketAddress(0));
+        channel.connect(server);
+    }
+
+    static String address(int id) {
+        return "10." + ((id >>> 16) & 0xFF) + "." + ((id >>> 8) & 0xFF) + "." + (id & 0xFF);
+    }
+
+    // Starts the receive thread; it runs until close()
+    void start() {
+        receiver = new Thread(this::receive, "loadgen-receive");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    // Sends heartbeats for seconds, paced so every client sends once per interval
+    void run(long seconds) throws InterruptedException {
+        Random random = new Random(firstClient);
+        double gapNanos = (double) TimeUnit.MILLISECONDS.toNanos(intervalMillis) / clients; // Between two sends, not truncated
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long churned = 0;
+        int slot = 0;
+        for (long sent = 0; ; sent++) {
+            long due = start + (long) (sent * gapNanos);
+            long now = System.nanoTime();
+            if (due >= end || now - end >= 0) {
+                break; // Every send of the run is done, or the sender fell behind and time is up
+            }
+            if (due - now > 1_000_000) {
+                LockSupport.parkNanos(due - now); // Ahead of schedule; otherwise catch up in a burst
+            }
+
+            // Churn: replace clients at a steady rate with ids the server has not seen
+            long churnDue = churnPerSecond * (now - start) / 1_000_000_000L;
+            for (; churned < churnDue; churned++) {
+                int victim = random.nextInt(clients);
+                ids[victim] = (ids[victim] + stride) & 0xFFFFFF;
+                joined[victim] = false;
+                listings[victim] = null;
+            }
+
+            sendHeartbeat(slot);
+            slot = slot + 1 == clients ? 0 : slot + 1;
+        }
+    }
+
+    // Stops receiving
+    void close() throws IOException, InterruptedException {
+        channel.close();
+        receiver.join(1000);
+    }
+
+    private void sendHeartbeat(int slot) {
+        if (listings[slot] == null) {
+            listings[slot] = listing(ids[slot], payloadBytes > 0 ? payloadBytes : 200);
+        }
+        HeartbeatPayload payload = new HeartbeatPayload();
+        if (payloadBytes > 0) {
+            payload.listing = listings[slot]; // Bare full listing every time
+        } else {
+            payload.listVersion = 1;
+            payload.listBase = joined[slot] ? 1 : -1;
+            payload.listing = joined[slot] ? "" : listings[slot];
+        }
+        payload.availabilityEpoch = availabilityEpoch;
+        long serverTimestamp = lastServerTimestamp;
+        if (serverTimestamp >= 0) {
+            payload.echoTimestamp = serverTimestamp;
+            payload.echoHoldMillis = (System.nanoTime() - lastServerReceiveNanos) / 1_000_000;
+        }
+        Protocol heartbeat = new Protocol(1, false, address(ids[slot]), System.currentTimeMillis(),
+                availabilityVersion, payload.format());
+        try {
+            for (ByteBuffer datagram : Fragmenter.split(heartbeat, MTU)) {
+                channel.write(datagram);
+            }
+            joined[slot] = true;
+            heartbeatsSent++;
+        } catch (IOException e) {
+            sendFailures++; // e.g. ECONNREFUSED after the server went away
+        }
+    }
+
+    // Listing of roughly bytes characters in the FileIndex entry format
+    private static String listing(int id, int bytes) {
+        StringBuilder listing = new StringBuilder();
+        for (int file = 0; listing.length() < bytes; file++) {
+            listing.append("load-").append(id).append('-').append(file).append(".bin|").append(4096 * (file + 1))
+                    .append("|1700000000000|").append(String.format("%064x", (long) id * 31 + file)).append(',');
+        }
+        return listing.toString();
+    }
+
+    // Records fan-out latency for every update, remembers the newest version and answers to @stats
+    private void receive() {
+        ByteBuffer buffer = ByteBuffer.allocate(Fragmenter.MAX_DATAGRAM);
+        while (true) {
+            try {
+                buffer.clear();
+                channel.receive(buffer);
+                long now = System.currentTimeMillis();
+                buffer.flip();
+                if (Fragmenter.isFragment(buffer)) {
+                    int messageId = buffer.getInt(Integer.BYTES);
+                    int index = buffer.getShort(Integer.BYTES * 2) & 0xFFFF;
+                    int count = buffer.getShort(Integer.BYTES * 2 + Short.BYTES) & 0xFFFF;
+                    buffer.position(Fragmenter.HEADER_SIZE);
+                    if (index == 0) {
+                        // First fragment: the message header and the start of the payload
+                        fragmentedTimestamps.put(messageId, buffer.getLong(buffer.position() + Integer.BYTES + 1
+                                + Integer.BYTES));
+                        noteVersion(buffer);
+                    }
+                    if (index == count - 1) {
+                        Long timestamp = fragmentedTimestamps.remove(messageId);
+                        if (timestamp != null) {
+                            recordUpdate(now, timestamp);
+                        }
+                    }
+                    continue;
+                }
+                Protocol message = Protocol.decode(buffer);
+                lastServerReceiveNanos = System.nanoTime();
+                lastServerTimestamp = message.getTimestamp();
+                String text = message.getPayload();
+                if (text.startsWith(HeartbeatPayload.STATS)) {
+                    lastStats = text;
+                } else if (!text.equals(HeartbeatPayload.ACK)) {
+                    buffer.rewind();
+                    noteVersion(buffer);
+                    recordUpdate(now, message.getTimestamp());
+                }
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                // Malformed datagram or ICMP error from a stopped server, keep going
+            }
+        }
+    }
+
+    private void recordUpdate(long now, long timestamp) {
+        fanOut.record(now - timestamp);
+        updatesReceived++;
+        lastServerTimestamp = timestamp;
+        lastServerReceiveNanos = System.nanoTime();
+    }
+
+    // "SNAPSHOT <version> <epoch>" or "DELTA <from> <to> <epoch>" at the start of an update's payload
+    private void noteVersion(ByteBuffer message) {
+        int start = message.position() + Protocol.HEADER_SIZE;
+        StringBuilder line = new StringBuilder();
+        for (int i = start; i < message.limit() && message.get(i) != '\n' && line.length() < 64; i++) {
+            line.append((char) message.get(i));
+        }
+        String[] parts = line.toString().split(" ");
+        try {
+            if (parts[0].equals(AvailabilityState.SNAPSHOT) && parts.length == 3) {
+                noteVersion(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+            } else if (parts[0].equals(AvailabilityState.DELTA) && parts.length == 4) {
+                noteVersion(Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+            }
+        } catch (NumberFormatException e) {
+            // Not an update
+        }
+    }
+
+    // Only the receive thread writes these; a new epoch (server restarted) starts over at its version
+    private void noteVersion(int version, int epoch) {
+        if (epoch != availabilityEpoch) {
+            availabilityEpoch = epoch;
+            availabilityVersion = version;
+        } else {
+            availabilityVersion = Math.max(availabilityVersion, version);
+        }
+    }
+
+    // Asks the server for its counters; null if it does not answer within STATS_TIMEOUT (it queues behind heartbeats)
+    Map<String, Long> serverStats() throws IOException, InterruptedException {
+        lastStats = null;
+        Protocol request = new Protocol(1, false, "loadgen", System.currentTimeMillis(), 0, HeartbeatPayload.STATS);
+        channel.write(ByteBuffer.wrap(request.serialize()));
+        for (long waited = 0; waited < STATS_TIMEOUT && lastStats == null; waited += 10) {
+            Thread.sleep(10);
+        }
+        String stats = lastStats;
+        if (stats == null) {
+            return null;
+        }
+        Map<String, Long> values = new HashMap<>();
+        for (String pair : stats.substring(HeartbeatPayload.STATS.length()).trim().split(" ")) {
+            int equals = pair.indexOf('=');
+            values.put(pair.substring(0, equals), Long.parseLong(pair.substring(equals + 1)));
+        }
+        return values;
+    }
+
+    private static String javaCommand() {
+        return System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    }
+
+    String result() {
+        return RESULT + heartbeatsSent + " " + sendFailures + " " + updatesReceived + " " + fanOut.encode();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String target = args.length > 0 ? args[0] : "127.0.0.1:5000";
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        long interval = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+        int payloadBytes = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        int churn = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+        long seconds = args.length > 5 ? Long.parseLong(args[5]) : 30;
+        int processes = args.length > 6 ? Integer.parseInt(args[6]) : 1;
+        int firstClient = args.length > 7 ? Integer.parseInt(args[7]) : 0; // Set for child processes
+        int stride = args.length > 8 ? Integer.parseInt(args[8]) : clients;
+
+        int colon = target.lastIndexOf(':');
+        InetSocketAddress server = new InetSocketAddress(target.substring(0, colon),
+                Integer.parseInt(target.substring(colon + 1)));
+        boolean child = args.length > 7;
+        if (processes < 1 || clients < processes) {
+            throw new IllegalArgumentException("Cannot split " + clients + " clients over " + processes + " processes");
+        }
+
+        // Split the clients over the processes; this process takes the first share
+        int share = clients / processes;
+        List<Process> children = new ArrayList<>();
+        for (int p = 1; p < processes; p++) {
+            int count = p == processes - 1 ? clients - share * (processes - 1) : share;
+            children.add(new ProcessBuilder(javaCommand(), "-cp", System.getProperty("java.class.path"),
+                    LoadGenerator.class.getName(), target, String.valueOf(count), String.valueOf(interval),
+                    String.valueOf(payloadBytes), String.valueOf(churn / processes), String.valueOf(seconds), "1",
+                    String.valueOf(p * share), String.valueOf(clients))
+                    .redirectError(ProcessBuilder.Redirect.INHERIT).start());
+        }
+
+        int ownClients = processes > 1 ? share : clients;
+        LoadGenerator generator = new LoadGenerator(server, ownClients, interval, payloadBytes,
+                processes > 1 ? churn / processes : churn, firstClient, stride);
+        generator.start();
+        if (child) {
+            generator.run(seconds);
+            Thread.sleep(DRAIN_MILLIS);
+            generator.close();
+            System.out.println(generator.result());
+            return;
+        }
+
+        Map<String, Long> before = generator.serverStats();
+        if (before == null) {
+            System.out.println("No @stats answer from " + server + "; ingest numbers will be missing");
+        }
+        long start = System.nanoTime();
+        generator.run(seconds);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        Thread.sleep(DRAIN_MILLIS);
+        Map<String, Long> after = generator.serverStats();
+        generator.close();
+
+        long sent = generator.heartbeatsSent, failures = generator.sendFailures, updates = generator.updatesReceived;
+        LatencyHistogram fanOut = generator.fanOut;
+        for (Process process : children) {
+            try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = output.readLine()) != null) {
+                    if (line.startsWith(RESULT)) {
+                        String[] parts = line.substring(RESULT.length()).split(" ", 4);
+                        sent += Long.parseLong(parts[0]);
+                        failures += Long.parseLong(parts[1]);
+                        updates += Long.parseLong(parts[2]);
+                        fanOut.merge(LatencyHistogram.decode(parts[3]));
+                    }
+                }
+            }
+            process.waitFor();
+        }
+
+        System.out.printf("Clients %d in %d process(es), one heartbeat per %d ms each, %s, churn %d/s, %.1f s%n",
+                clients, processes, interval, payloadBytes > 0 ? payloadBytes + "-byte listings" : "delta heartbeats",
+                churn, elapsed);
+        System.out.printf("Sent      %d heartbeats (%.0f/s), %d send failures%n", sent, sent / elapsed, failures);
+        if (before != null && after != null) {
+            long processed = after.get("processed") - before.get("processed");
+            long received = after.get("received") - before.get("received");
+            System.out.printf("Server    processed %d (%.0f/s), received %d datagrams, queue drops %d, malformed %d%n",
+                    processed, processed / elapsed, received, after.get("dropped") - before.get("dropped"),
+                    after.get("malformed") - before.get("malformed"));
+            System.out.printf("Drop rate %.2f%% of heartbeats never applied; server tracks %d clients, version %d%n",
+                    sent == 0 ? 0.0 : Math.max(0, 100.0 * (sent - processed) / sent), after.get("clients"),
+                    after.get("version"));
+        }
+        System.out.printf("Fan-out   %d updates received; latency ms p50 %d  p90 %d  p99 %d  p99.9 %d  max %d%n",
+                updates, fanOut.percentile(0.50), fanOut.percentile(0.90), fanOut.percentile(0.99),
+                fanOut.percentile(0.999), fanOut.getMax());
+    }
+}
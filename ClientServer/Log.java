@@ -0,0 +1,132 @@
+package ClientServer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Leveled, asynchronous logging with a per-logger rate limit.
+ *
+ * Lines below the logger's level cost one comparison (use the Supplier
+ * overloads or isEnabled() so the message is not even built). Enabled lines
+ * are handed to LogWriter, which queues them in the calling thread's ring and
+ * writes them in batches from a background thread, so the caller never waits
+ * on stdout or the disk. Each logger passes at most maxPerSecond lines per
+ * second; the rest are counted and the count is reported on the next line
+ * that gets through, so a flood of packet errors cannot fill the rings.
+ *
+ * The default level comes from -Dlog.level (INFO if unset) and can be changed
+ * for all loggers or one of them at runtime. Output goes to stdout (ERROR and
+ * WARN to stderr), or is appended to -Dlog.file / setFile(); -Dlog.buffer sets
+ * the records buffered per thread (1024).
+ */
+public final class Log {
+    public enum Level { ERROR, WARN, INFO, DEBUG }
+
+    private static final int DEFAULT_MAX_PER_SECOND = 50;
+    private static final Map<String, Log> LOGGERS = new ConcurrentHashMap<>();
+    private static volatile Level defaultLevel = parse(System.getProperty("log.level"), Level.INFO);
+
+    private final String name;
+    private volatile Level level; // null = follow the default level
+    private volatile int maxPerSecond = DEFAULT_MAX_PER_SECOND;
+    private final AtomicLong windowStart = new AtomicLong(); // Second the current count belongs to
+    private final AtomicLong windowCount = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    private Log(String name) {
+        this.name = name;
+    }
+
+    public static Log get(String name) {
+        return LOGGERS.computeIfAbsent(name, Log::new);
+    }
+
+    public static void setDefaultLevel(Level level) {
+        defaultLevel = level;
+    }
+
+    // Appends all further output to path (console if it cannot be opened)
+    public static void setFile(String path) {
+        LogWriter.setFile(path);
+    }
+
+    // Records lost because a thread's buffer was full when it logged
+    public static long getDropped() {
+        return LogWriter.getDropped();
+    }
+
+    // Level name as in a config file; unknown or missing names give fallback
+    public static Level parse(String level, Level fallback) {
+        if (level == null) {
+            return fallback;
+        }
+        try {
+            return Level.valueOf(level.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+
+    public void setMaxPerSecond(int maxPerSecond) {
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    public boolean isEnabled(Level at) {
+        Level threshold = level != null ? level : defaultLevel;
+        return at.compareTo(threshold) <= 0;
+    }
+
+    public long getSuppressed() {
+        return suppressed.get();
+    }
+
+    public void error(String message) { log(Level.ERROR, message, null); }
+    public void error(String message, Throwable cause) { log(Level.ERROR, message, cause); }
+    public void warn(String message) { log(Level.WARN, message, null); }
+    public void warn(String message, Throwable cause) { log(Level.WARN, message, cause); }
+    public void info(String message) { log(Level.INFO, message, null); }
+    public void debug(String message) { log(Level.DEBUG, message, null); }
+
+    public void info(Supplier<String> message) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, message.get(), null);
+        }
+    }
+
+    public void debug(Supplier<String> message) {
+        if (isEnabled(Level.DEBUG)) {
+            log(Level.DEBUG, message.get(), null);
+        }
+    }
+
+    public void log(Level at, String message, Throwable cause) {
+        if (!isEnabled(at)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (!admit(now)) {
+            suppressed.incrementAndGet();
+            return;
+        }
+        long dropped = suppressed.getAndSet(0);
+        if (!LogWriter.offer(now, at, name, message, dropped, cause) && dropped > 0) {
+            suppressed.addAndGet(dropped); // Report them with the next line that is queued
+        }
+    }
+
+    // Fixed one-second windows: the first maxPerSecond lines of each second get through
+    private boolean admit(long now) {
+        long second = now / 1000;
+        long start = windowStart.get();
+        if (second != start && windowStart.compareAndSet(start, second)) {
+            windowCount.set(0);
+        }
+        return windowCount.incrementAndGet() <= maxPerSecond;
+    }
+}
@@ -0,0 +1,206 @@
+package ClientServer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background writer behind Log.
+ *
+ * Every logging thread gets its own single-producer ring of preallocated
+ * records, so a packet thread only fills in a slot and publishes it: no
+ * lock, no formatting, no I/O. One daemon thread drains all rings every
+ * few milliseconds, formats the records and writes each batch with one
+ * write and one flush. When a thread's ring is full the record is dropped
+ * and counted; the writer reports drops in the output and getDropped().
+ *
+ * Records of one thread stay in order (on the console, within stdout and
+ * within stderr); records of different threads are interleaved batch by
+ * batch, not strictly by time.
+ */
+final class LogWriter {
+    private static final int RING_SIZE = Integer.highestOneBit(Math.max(16, Integer.getInteger("log.buffer", 1024)));
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10); // Longest a record waits in its ring
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault());
+
+    private static final List<Ring> RINGS = new CopyOnWriteArrayList<>();
+    private static final ThreadLocal<Ring> LOCAL = ThreadLocal.withInitial(() -> {
+        Ring ring = new Ring(Thread.currentThread());
+        RINGS.add(ring);
+        return ring;
+    });
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static volatile Writer file; // null = stdout/stderr
+
+    // Reused by the writer thread only
+    private static final StringBuilder out = new StringBuilder(1 << 16);
+    private static final StringBuilder err = new StringBuilder(1 << 12);
+    private static long reportedDrops;
+
+    static {
+        String path = System.getProperty("log.file");
+        if (path != null) {
+            setFile(path);
+        }
+        Thread writer = new Thread(LogWriter::run, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(LogWriter::drain, "log-flush"));
+    }
+
+    private LogWriter() {
+    }
+
+    // A log record; the slots of a ring are allocated once and refilled
+    private static final class Record {
+        long time;
+        Log.Level level;
+        String logger;
+        String message;
+        long suppressed;
+        Throwable cause;
+    }
+
+    // Single producer (the owning thread), single consumer (the writer thread)
+    private static final class Ring {
+        private final Thread owner;
+        private final Record[] records = new Record[RING_SIZE];
+        private final AtomicLong head = new AtomicLong(); // Next record the writer takes
+        private final AtomicLong tail = new AtomicLong(); // Next slot the owner fills
+
+        Ring(Thread owner) {
+            this.owner = owner;
+            for (int i = 0; i < records.length; i++) {
+                records[i] = new Record();
+            }
+        }
+
+        boolean offer(long time, Log.Level level, String logger, String message, long suppressed, Throwable cause) {
+            long t = tail.get();
+            if (t - head.get() == records.length) {
+                return false;
+            }
+            Record record = records[(int) t & (records.length - 1)];
+            record.time = time;
+            record.level = level;
+            record.logger = logger;
+            record.message = message;
+            record.suppressed = suppressed;
+            record.cause = cause;
+            tail.lazySet(t + 1); // Publishes the record's fields to the writer
+            return true;
+        }
+
+        // Formats every published record; returns how many
+        int drainTo(StringBuilder out, StringBuilder err) {
+            long h = head.get();
+            long t = tail.get();
+            for (long i = h; i < t; i++) {
+                Record record = records[(int) i & (records.length - 1)];
+                format(record, record.level.compareTo(Log.Level.WARN) <= 0 ? err : out);
+                record.message = null; // Don't keep the strings alive until the slot is reused
+                record.cause = null;
+            }
+            head.lazySet(t);
+            return (int) (t - h);
+        }
+
+        boolean isEmpty() {
+            return head.get() == tail.get();
+        }
+    }
+
+    static boolean offer(long time, Log.Level level, String logger, String message, long suppressed,
+                         Throwable cause) {
+        if (LOCAL.get().offer(time, level, logger, message, suppressed, cause)) {
+            return true;
+        }
+        DROPPED.incrementAndGet();
+        return false;
+    }
+
+    static long getDropped() {
+        return DROPPED.get();
+    }
+
+    // Appends to path from now on instead of writing to stdout/stderr
+    static void setFile(String path) {
+        try {
+            file = new OutputStreamWriter(new FileOutputStream(path, true), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.err.println("Cannot open log file " + path + ", logging to the console: " + e);
+        }
+    }
+
+    private static void run() {
+        while (true) {
+            if (drain() == 0) {
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+    }
+
+    // One pass over all rings and one write per destination; synchronized for the shutdown hook
+    private static synchronized int drain() {
+        Writer target = file;
+        StringBuilder warnings = target != null ? out : err; // A file gets every level in one ordered batch
+        int drained = 0;
+        for (Ring ring : RINGS) {
+            drained += ring.drainTo(out, warnings);
+            if (!ring.owner.isAlive() && ring.isEmpty()) {
+                RINGS.remove(ring);
+            }
+        }
+        long dropped = DROPPED.get();
+        if (dropped != reportedDrops) {
+            warnings.append(TIME.format(Instant.now())).append(" WARN [Log] ").append(dropped - reportedDrops)
+                    .append(" records dropped, log buffer full").append(System.lineSeparator());
+            reportedDrops = dropped;
+        }
+        try {
+            if (target != null) {
+                if (out.length() > 0) {
+                    target.append(out).flush();
+                }
+            } else {
+                write(System.out, out);
+                write(System.err, err);
+            }
+        } catch (IOException e) {
+            file = null; // Fall back to the console, the records of this batch are lost
+            System.err.println("Log file write failed, logging to the console: " + e);
+        }
+        out.setLength(0);
+        err.setLength(0);
+        return drained;
+    }
+
+    private static void write(PrintStream stream, StringBuilder batch) {
+        if (batch.length() > 0) {
+            stream.append(batch);
+            stream.flush();
+        }
+    }
+
+    private static void format(Record record, StringBuilder line) {
+        line.append(TIME.format(Instant.ofEpochMilli(record.time))).append(' ').append(record.level)
+                .append(" [").append(record.logger).append("] ").append(record.message);
+        if (record.suppressed > 0) {
+            line.append(" (").append(record.suppressed).append(" lines suppressed)");
+        }
+        line.append(System.lineSeparator());
+        if (record.cause != null) {
+            StringWriter trace = new StringWriter();
+            record.cause.printStackTrace(new PrintWriter(trace));
+            line.append(trace);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package ClientServer;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.*;
+
+/**
+ * Named counters, gauges and latency histograms for one daemon.
+ *
+ * Updates never lock: counters are LongAdders and histograms keep their
+ * LatencyHistogram-style buckets in an AtomicLongArray, so packet paths on
+ * many threads can record freely. Metrics are created on first use; callers
+ * keep the returned object instead of looking it up per packet.
+ *
+ * The current values can be read as text ("name value" per line, histograms
+ * as _count/_mean/_p50/_p99/_max lines) from http://127.0.0.1:port/metrics
+ * after serve(port), or as attributes of the MBean registered by registerMBean().
+ */
+public class Metrics {
+    private final String name;
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private HttpServer endpoint;
+
+    public Metrics(String name) {
+        this.name = name;
+    }
+
+    public Counter counter(String metric) {
+        return counters.computeIfAbsent(metric, m -> new Counter());
+    }
+
+    // Value read whenever the metrics are rendered, e.g. a table size
+    public void gauge(String metric, LongSupplier value) {
+        gauges.put(metric, value);
+    }
+
+    public Histogram histogram(String metric) {
+        return histograms.computeIfAbsent(metric, m -> new Histogram());
+    }
+
+    public static final class Counter {
+        private final LongAdder count = new LongAdder();
+
+        public void increment() { count.increment(); }
+        public void add(long amount) { count.add(amount); }
+        public long get() { return count.sum(); }
+    }
+
+    // Concurrent counterpart of LatencyHistogram, same buckets and precision
+    public static final class Histogram {
+        private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.index(Long.MAX_VALUE) + 1);
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        public void record(long value) {
+            value = Math.max(0, value);
+            counts.incrementAndGet(LatencyHistogram.index(value));
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        // Recording continues while a snapshot is taken, so its totals may be off by in-flight values
+        LatencyHistogram snapshot() {
+            long[] copy = new long[counts.length()];
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = counts.get(i);
+            }
+            return LatencyHistogram.of(copy, sum.sum(), max.get());
+        }
+    }
+
+    // Current value of every metric, sorted by name; each histogram gives five values
+    public Map<String, Long> values() {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((metric, counter) -> values.put(metric, counter.get()));
+        gauges.forEach((metric, gauge) -> values.put(metric, gauge.getAsLong()));
+        histograms.forEach((metric, histogram) -> {
+            LatencyHistogram snapshot = histogram.snapshot();
+            values.put(metric + "_count", snapshot.getCount());
+            values.put(metric + "_mean", Math.round(snapshot.getMean()));
+            values.put(metric + "_p50", snapshot.percentile(0.50));
+            values.put(metric + "_p99", snapshot.percentile(0.99));
+            values.put(metric + "_max", snapshot.getMax());
+        });
+        return values;
+    }
+
+    // All metrics sorted by name, one "<registry>_<metric> value" line each
+    public String render() {
+        StringBuilder text = new StringBuilder();
+        values().forEach((metric, value) -> text.append(name).append('_').append(metric).append(' ')
+                .append(value).append('\n'));
+        return text.toString();
+    }
+
+    // Serves render() at http://127.0.0.1:port/metrics on a background thread; port 0 picks one
+    public synchronized int serve(int port) throws IOException {
+        endpoint = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        endpoint.createContext("/metrics", exchange -> {
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        endpoint.start();
+        return endpoint.getAddress().getPort();
+    }
+
+    public synchronized void close() {
+        if (endpoint != null) {
+            endpoint.stop(0);
+            endpoint = null;
+        }
+    }
+
+    // Registers every metric as a read-only long attribute of ClientServer:type=Metrics,name=<name>
+    public void registerMBean() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(),
+                new ObjectName("ClientServer:type=Metrics,name=" + name));
+    }
+
+    private final class MetricsMBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Long value = values().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Long> values = values();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            Map<String, Long> values = values();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+            int i = 0;
+            for (String attribute : values.keySet()) {
+                attributes[i++] = new MBeanAttributeInfo(attribute, "long", attribute, true, false, false);
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Metrics of " + name, attributes, null, null, null);
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) throws MBeanException {
+            throw new MBeanException(new UnsupportedOperationException(action));
+        }
+    }
+}
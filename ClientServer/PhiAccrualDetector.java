@@ -0,0 +1,162 @@
+package ClientServer;
+
+/**
+ * Phi-accrual failure detector (Hayashibara et al.).
+ *
+ * Keeps the last windowSize heartbeat inter-arrival times per node in a
+ * primitive ring buffer and models them as a normal distribution. The
+ * suspicion level phi = -log10(P(no heartbeat yet)) grows the longer a node
+ * stays silent relative to its own history, so a node with steady heartbeats
+ * is suspected quickly while a jittery one gets more slack.
+ *
+ * Because phi depends only on the standardized delay, the moment phi crosses
+ * the threshold can be computed at each heartbeat and handed to ExpiryWheel
+ * as an ordinary deadline. Nodes are keyed by int id, like ExpiryWheel.
+ */
+public class PhiAccrualDetector {
+    private final int windowSize;
+    private final int minSamples;
+    private final double threshold;
+    private final double minStdDeviation;
+    private final long acceptablePause;
+    private final long fallbackTimeout;
+    private final double thresholdY; // Standardized delay at which phi == threshold
+
+    private final IntMap<History> histories = new IntMap<>(1024); // Guarded by itself; each History by its own lock
+
+    /**
+     * @param windowSize      inter-arrival samples kept per node
+     * @param threshold       phi at which a node is declared dead (8 ~ one false positive in 10^8)
+     * @param minStdDevMillis floor on the deviation so very regular nodes are not evicted on a hiccup
+     * @param acceptablePause extra silence tolerated on top of the history (GC pauses, brief stalls)
+     * @param fallbackTimeout fixed timeout used until a node has enough samples
+     */
+    public PhiAccrualDetector(int windowSize, double threshold, long minStdDevMillis,
+                              long acceptablePause, long fallbackTimeout) {
+        this.windowSize = windowSize;
+        this.minSamples = Math.min(10, windowSize);
+        this.threshold = threshold;
+        this.minStdDeviation = minStdDevMillis;
+        this.acceptablePause = acceptablePause;
+        this.fallbackTimeout = fallbackTimeout;
+        this.thresholdY = solveY(threshold);
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Records a heartbeat from key at nowMillis and returns the time at which
+     * the node will be suspected if nothing else arrives.
+     */
+    public long heartbeat(int key, long nowMillis) {
+        History history;
+        synchronized (histories) {
+            history = histories.get(key);
+            if (history == null) {
+                history = new History(windowSize);
+                histories.put(key, history);
+            }
+        }
+        synchronized (history) {
+            if (history.seen) {
+                history.add(nowMillis - history.lastArrival);
+            }
+            history.seen = true;
+            history.lastArrival = nowMillis;
+            if (history.count < minSamples) {
+                return nowMillis + fallbackTimeout;
+            }
+            double mean = history.mean();
+            double stdDev = Math.max(history.stdDeviation(), minStdDeviation);
+            return nowMillis + acceptablePause + (long) Math.ceil(mean + thresholdY * stdDev);
+        }
+    }
+
+    /**
+     * Current suspicion level of key, 0 for unknown nodes.
+     */
+    public double phi(int key, long nowMillis) {
+        History history;
+        synchronized (histories) {
+            history = histories.get(key);
+        }
+        if (history == null) {
+            return 0.0;
+        }
+        synchronized (history) {
+            if (history.count < minSamples) {
+                return 0.0;
+            }
+            double stdDev = Math.max(history.stdDeviation(), minStdDeviation);
+            return phi((nowMillis - history.lastArrival - acceptablePause - history.mean()) / stdDev);
+        }
+    }
+
+    public void remove(int key) {
+        synchronized (histories) {
+            histories.remove(key);
+        }
+    }
+
+    // phi for a standardized delay y, using the logistic approximation of the normal CDF
+    static double phi(double y) {
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (y > 0) {
+            return -Math.log10(e / (1.0 + e));
+        }
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+
+    // phi is increasing in y, so bisect for phi(y) == threshold
+    private static double solveY(double threshold) {
+        double low = -10, high = 40;
+        for (int i = 0; i < 100; i++) {
+            double mid = (low + high) / 2;
+            if (phi(mid) < threshold) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return high;
+    }
+
+    // Fixed-size ring of inter-arrival times with running sums
+    private static final class History {
+        final long[] intervals;
+        int head, count;
+        long sum;
+        double sumSquares;
+        long lastArrival;
+        boolean seen;
+
+        History(int size) {
+            intervals = new long[size];
+        }
+
+        void add(long interval) {
+            if (count == intervals.length) {
+                long oldest = intervals[head];
+                sum -= oldest;
+                sumSquares -= (double) oldest * oldest;
+            } else {
+                count++;
+            }
+            intervals[head] = interval;
+            head = (head + 1) % intervals.length;
+            sum += interval;
+            sumSquares += (double) interval * interval;
+        }
+
+        double mean() {
+            return (double) sum / count;
+        }
+
+        double stdDeviation() {
+            double mean = mean();
+            return Math.sqrt(Math.max(0.0, sumSquares / count - mean * mean));
+        }
+    }
+}
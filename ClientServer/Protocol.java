@@ -1,31 +1,62 @@
 package ClientServer;
 
 import java.io.*;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import ClientServer.*;
 
-public class Protocol implements Serializable {
-    private static final long serialVersionUID = 1L;
+public class Protocol {
 
-    // Dynamically calculated HEADER_SIZE
-    private static final int HEADER_SIZE = Integer.BYTES * 3 + Long.BYTES + 1;  // version, nodeId, reserve, timestamp, mode
+    // Fixed header: version, mode, nodeId (packed IPv4), timestamp, reserve, length
+    public static final int HEADER_SIZE = Integer.BYTES * 4 + Long.BYTES + 1;
 
-    private int version; 
-    private int length; // Length of payload
+    private static final byte MODE_CLIENT_SERVER = 0;
+    private static final byte MODE_P2P = 1;
+
+    // Scratch space for decoding payloads out of direct buffers
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[1024]);
+
+    private int version;
+    private int length; // Length of payload in UTF-8 bytes
     private String nodeId;
+    private int nodeAddress; // nodeId packed as an IPv4 address, 0 if it is not one
     private boolean mode; // true = P2P, false = Client-Server
     private long timestamp;
     private int reserve;
     private String payload;
+    private byte[] payloadBytes; // UTF-8 payload, encoded on demand
 
     public Protocol(int version, boolean mode, String nodeId, long timestamp, int reserve, String payload) {
-        this.version = version; 
+        this.version = version;
         this.mode = mode;
-        this.nodeId = nodeId;
+        this.timestamp = timestamp;
+        this.reserve = reserve;
+        setNodeId(nodeId);
+        setPayload(payload);
+    }
+
+    // nodeAddress is the header's node id field as is; PeerToPeer.Protocol puts its int peer ids there
+    public Protocol(int version, boolean mode, int nodeAddress, long timestamp, int reserve, String payload) {
+        this.version = version;
+        this.mode = mode;
+        this.nodeAddress = nodeAddress;
         this.timestamp = timestamp;
         this.reserve = reserve;
         setPayload(payload);
     }
 
+    // Used by decode(), the payload length is already known from the header
+    private Protocol(int version, boolean mode, int nodeAddress, long timestamp, int reserve, String payload, int length) {
+        this.version = version;
+        this.mode = mode;
+        this.nodeAddress = nodeAddress;
+        this.timestamp = timestamp;
+        this.reserve = reserve;
+        this.payload = payload;
+        this.length = length;
+    }
+
     // Getters & Setters
     public int getVersion() { return version; }
     public void setVersion(int version) { this.version = version; }
@@ -33,8 +64,22 @@ public class Protocol implements Serializable {
     public boolean getMode() { return mode; }
     public void setMode(boolean mode) { this.mode = mode; }
 
-    public String getNodeId() { return nodeId; }
-    public void setNodeId(String nodeId) { this.nodeId = nodeId; }
+    public String getNodeId() {
+        if (nodeId == null) {
+            nodeId = formatAddress(nodeAddress);
+        }
+        return nodeId;
+    }
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+        this.nodeAddress = parseAddress(nodeId);
+    }
+
+    public int getNodeAddress() { return nodeAddress; }
+    public void setNodeAddress(int nodeAddress) {
+        this.nodeAddress = nodeAddress;
+        this.nodeId = null; // Formatted from the address when asked for
+    }
 
     public long getTimestamp() { return timestamp; }
     public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
@@ -45,7 +90,8 @@ public class Protocol implements Serializable {
     public String getPayload() { return payload; }
     public void setPayload(String payload) {
         this.payload = (payload != null) ? payload : "";
-        this.length = this.payload.length();
+        this.payloadBytes = this.payload.getBytes(StandardCharsets.UTF_8);
+        this.length = payloadBytes.length;
     }
 
     public int getLength() { return length; }
@@ -54,22 +100,109 @@ public class Protocol implements Serializable {
         return HEADER_SIZE + length;
     }
 
-    // Serialization - Converts an instance of Protocol into a byte array for UDP transmission
-    public byte[] serialize() throws IOException {
-        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
-             ObjectOutputStream out = new ObjectOutputStream(bos)) {
-            out.writeObject(this);
-            out.flush();
-            return bos.toByteArray();
+    /**
+     * Writes this message into buffer at its current position.
+     * The buffer must have at least getTotalSize() bytes remaining.
+     */
+    public void encode(ByteBuffer buffer) {
+        if (payloadBytes == null) {
+            payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+        }
+        buffer.putInt(version);
+        buffer.put(mode ? MODE_P2P : MODE_CLIENT_SERVER);
+        buffer.putInt(nodeAddress);
+        buffer.putLong(timestamp);
+        buffer.putInt(reserve);
+        buffer.putInt(length);
+        buffer.put(payloadBytes, 0, length);
+    }
+
+    /**
+     * Reads one message from buffer, starting at its current position.
+     * Only the payload string is allocated.
+     */
+    public static Protocol decode(ByteBuffer buffer) throws ProtocolException {
+        if (buffer.remaining() < HEADER_SIZE) {
+            throw new ProtocolException("Truncated header: " + buffer.remaining() + " bytes");
+        }
+        int version = buffer.getInt();
+        byte mode = buffer.get();
+        int nodeAddress = buffer.getInt();
+        long timestamp = buffer.getLong();
+        int reserve = buffer.getInt();
+        int length = buffer.getInt();
+
+        if (mode != MODE_CLIENT_SERVER && mode != MODE_P2P) {
+            throw new ProtocolException("Unknown mode: " + mode);
         }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new ProtocolException("Bad payload length " + length + ", " + buffer.remaining() + " bytes left");
+        }
+
+        String payload;
+        if (buffer.hasArray()) {
+            payload = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] scratch = SCRATCH.get();
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+                SCRATCH.set(scratch);
+            }
+            buffer.get(scratch, 0, length);
+            payload = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+        return new Protocol(version, mode == MODE_P2P, nodeAddress, timestamp, reserve, payload, length);
+    }
+
+    // Serialization - Converts an instance of Protocol into a byte array for UDP transmission
+    public byte[] serialize() {
+        byte[] data = new byte[getTotalSize()];
+        encode(ByteBuffer.wrap(data));
+        return data;
     }
 
     // Deserialization - Converts a received UDP byte array back into a Protocol object
-    public static Protocol deserialize(byte[] data) throws IOException, ClassNotFoundException {
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(data);
-             ObjectInputStream in = new ObjectInputStream(bis)) {
-            return (Protocol) in.readObject();
+    public static Protocol deserialize(byte[] data) throws IOException {
+        return deserialize(data, data.length);
+    }
+
+    public static Protocol deserialize(byte[] data, int length) throws IOException {
+        return decode(ByteBuffer.wrap(data, 0, length));
+    }
+
+    // Packs a dotted-quad IPv4 string into an int, returns 0 for anything else (e.g. "server")
+    static int parseAddress(String address) {
+        if (address == null) {
+            return 0;
         }
+        int packed = 0;
+        int octet = -1;
+        int dots = 0;
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) {
+                    return 0;
+                }
+            } else if (c == '.' && octet >= 0 && dots < 3) {
+                packed = (packed << 8) | octet;
+                octet = -1;
+                dots++;
+            } else {
+                return 0;
+            }
+        }
+        if (dots != 3 || octet < 0) {
+            return 0;
+        }
+        return (packed << 8) | octet;
+    }
+
+    static String formatAddress(int address) {
+        return ((address >>> 24) & 0xFF) + "." + ((address >>> 16) & 0xFF) + "."
+                + ((address >>> 8) & 0xFF) + "." + (address & 0xFF);
     }
 
     @Override
@@ -77,7 +210,7 @@ public class Protocol implements Serializable {
         return "Protocol{" +
                 "version=" + version +
                 ", mode=" + (mode ? "P2P" : "Client-Server") +
-                ", nodeId=" + nodeId +
+                ", nodeId=" + getNodeId() +
                 ", timestamp=" + timestamp +
                 ", reserve=" + reserve +
                 ", payload='" + payload + '\'' +
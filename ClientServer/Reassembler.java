@@ -0,0 +1,170 @@
+package ClientServer;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Puts fragmented messages back together on the receiving side.
+ *
+ * Memory is bounded: at most maxMessages partial messages and maxBytes of
+ * fragment data (plus each message's fragment table) are held, the oldest
+ * partial message is dropped to make room, and anything still incomplete
+ * after timeoutMillis is discarded. A message whose advertised fragment count
+ * could not fit in maxBytes is refused before anything is allocated for it.
+ * Not thread-safe; each receive thread owns its own instance.
+ */
+public class Reassembler {
+    private final int maxMessages;
+    private final long maxBytes;
+    private final long timeoutMillis;
+
+    // Insertion order = arrival order of the first fragment, so the eldest entry expires first
+    private final LinkedHashMap<Key, Partial> pending = new LinkedHashMap<>();
+    private long pendingBytes;
+
+    private long completed, expired, evicted, rejected;
+
+    public Reassembler(int maxMessages, long maxBytes, long timeoutMillis) {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Returns the complete message held in datagram, or null while fragments are still missing.
+     * Plain (unfragmented) datagrams are returned unchanged.
+     */
+    public ByteBuffer accept(SocketAddress source, ByteBuffer datagram, long now) {
+        expire(now);
+        if (!Fragmenter.isFragment(datagram)) {
+            return datagram;
+        }
+
+        datagram.getInt(); // magic
+        int messageId = datagram.getInt();
+        int index = datagram.getShort() & 0xFFFF;
+        int count = datagram.getShort() & 0xFFFF;
+        if (count == 0 || index >= count) {
+            return null;
+        }
+
+        Key key = new Key(source, messageId);
+        Partial partial = pending.get(key);
+        if (partial == null) {
+            // Every fragment but the last is full size, which bounds the whole message from below
+            int chunkSize = datagram.remaining();
+            long minimum = index < count - 1 ? (long) chunkSize * (count - 1) + 1 : count - 1L + chunkSize;
+            if (chunkSize == 0 || minimum + Partial.overhead(count) > maxBytes) {
+                rejected++;
+                return null;
+            }
+            while (pending.size() >= maxMessages) {
+                evictOldest();
+            }
+            partial = new Partial(count, now);
+            pending.put(key, partial);
+            pendingBytes += partial.charged;
+        }
+        if (partial.chunks.length != count || partial.chunks[index] != null) {
+            return null; // Duplicate or inconsistent fragment
+        }
+
+        byte[] chunk = new byte[datagram.remaining()];
+        datagram.get(chunk);
+        partial.chunks[index] = chunk;
+        partial.received++;
+        partial.bytes += chunk.length;
+        partial.charged += chunk.length;
+        pendingBytes += chunk.length;
+
+        if (partial.received == count) {
+            pending.remove(key);
+            pendingBytes -= partial.charged;
+            completed++;
+            ByteBuffer message = ByteBuffer.allocate(partial.bytes);
+            for (byte[] part : partial.chunks) {
+                message.put(part);
+            }
+            message.flip();
+            return message;
+        }
+
+        while (pendingBytes > maxBytes && !pending.isEmpty()) {
+            evictOldest();
+        }
+        return null;
+    }
+
+    // Drops partial messages whose first fragment arrived more than timeoutMillis ago
+    void expire(long now) {
+        Iterator<Partial> it = pending.values().iterator();
+        while (it.hasNext()) {
+            Partial partial = it.next();
+            if (now - partial.firstSeen <= timeoutMillis) {
+                break;
+            }
+            it.remove();
+            pendingBytes -= partial.charged;
+            expired++;
+        }
+    }
+
+    private void evictOldest() {
+        Iterator<Partial> it = pending.values().iterator();
+        Partial oldest = it.next();
+        it.remove();
+        pendingBytes -= oldest.charged;
+        evicted++;
+    }
+
+    int getPendingMessages() { return pending.size(); }
+    long getPendingBytes() { return pendingBytes; }
+    long getCompleted() { return completed; }
+    long getExpired() { return expired; }
+    long getEvicted() { return evicted; }
+    long getRejected() { return rejected; }
+
+    private static final class Key {
+        private final SocketAddress source;
+        private final int messageId;
+
+        Key(SocketAddress source, int messageId) {
+            this.source = source;
+            this.messageId = messageId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return messageId == other.messageId && source.equals(other.source);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * source.hashCode() + messageId;
+        }
+    }
+
+    private static final class Partial {
+        final byte[][] chunks;
+        final long firstSeen;
+        int received;
+        int bytes;    // Fragment data, the size of the reassembled message
+        long charged; // Counted against maxBytes: the data plus the chunks array
+
+        Partial(int count, long firstSeen) {
+            this.chunks = new byte[count][];
+            this.firstSeen = firstSeen;
+            this.charged = overhead(count);
+        }
+
+        // The chunks array: header and one reference per fragment
+        static long overhead(int count) {
+            return 16 + (long) count * Long.BYTES;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package ClientServer;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Non-blocking receive loop for one DatagramChannel.
+ * Decodes datagrams out of a single reused direct buffer (reassembling
+ * fragmented messages first) and hands them to the worker queue; when the
+ * queue is full the heartbeat is dropped, never waited on.
+ */
+class ReceiveLoop implements Runnable {
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final ByteBuffer buffer;
+    private final BlockingQueue<Heartbeat> queue;
+    private final Reassembler reassembler;
+
+    // Shared by all receive loops of the server
+    private final Metrics.Counter received;
+    private final Metrics.Counter bytes;
+    private final Metrics.Counter dropped;
+    private final Metrics.Counter malformed;
+
+    ReceiveLoop(DatagramChannel channel, int bufferSize, BlockingQueue<Heartbeat> queue,
+                Reassembler reassembler, Metrics metrics) throws IOException {
+        this.channel = channel;
+        this.received = metrics.counter("packets_in");
+        this.bytes = metrics.counter("bytes_in");
+        this.dropped = metrics.counter("queue_drops");
+        this.malformed = metrics.counter("decode_failures");
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.queue = queue;
+        this.reassembler = reassembler;
+        this.selector = Selector.open();
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (channel.isOpen()) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isReadable()) {
+                        drain();
+                    }
+                }
+            }
+        } catch (ClosedChannelException | ClosedSelectorException e) {
+            // Shutting down
+        } catch (IOException e) {
+            Log.get("Server").error("Receive loop failed", e);
+        }
+    }
+
+    // Reads every datagram that is currently queued on the socket
+    private void drain() throws IOException {
+        while (true) {
+            buffer.clear();
+            SocketAddress source = channel.receive(buffer);
+            if (source == null) {
+                return;
+            }
+            long receivedNanos = System.nanoTime();
+            long receivedMillis = System.currentTimeMillis();
+            buffer.flip();
+            received.increment();
+            bytes.add(buffer.remaining());
+            try {
+                ByteBuffer complete = reassembler.accept(source, buffer, receivedMillis);
+                if (complete == null) {
+                    continue; // Waiting for more fragments
+                }
+                Protocol message = Protocol.decode(complete);
+                if (!queue.offer(new Heartbeat(message, (InetSocketAddress) source, receivedNanos,
+                        receivedMillis))) {
+                    dropped.increment();
+                }
+            } catch (ProtocolException e) {
+                malformed.increment();
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        selector.close();
+        channel.close();
+    }
+}
@@ -2,79 +2,239 @@ package ClientServer;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.util.*;
 import java.util.concurrent.*;
 import ClientServer.*;
 
 
 public class Server extends Node {
-    private DatagramSocket socket;
+    private static final Log LOG = Log.get("Server");
+    private DatagramChannel[] channels; // One per receive socket, all bound to the server port
+    private Selector sendSelector; // OP_WRITE on channels[0], which the receive loop made non-blocking
+    private static final long SEND_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100); // Longest wait for buffer space
+    private ReceiveLoop[] receiveLoops;
     private ExecutorService executorService;
     private static final int TIMEOUT = 30000; // 30s before considering a client inactive
-    private static final int BUFFER_SIZE = 1024;
+    private int mtu; // Largest datagram we send; bigger messages are fragmented (we receive up to 64 KB)
+    private long broadcastInterval = 30000; // Milliseconds between availability broadcasts
+    private boolean headerNodeIds; // Take the node id from the message header instead of the source IP
 
-    private ConcurrentHashMap<String, Protocol> clientData; // Active client data (heartbeat + files)
-    private ConcurrentHashMap<String, InetSocketAddress> clientAddresses; // Client IPs & Ports
+    // Exposed on metrics_port and over JMX; the receive loops add packets_in, bytes_in, decode_failures, queue_drops
+    private final Metrics metrics = new Metrics("server");
+    private final Metrics.Counter processed = metrics.counter("heartbeats_processed");
+    private final Metrics.Counter evictions = metrics.counter("evictions");
+    private final Metrics.Counter packetsOut = metrics.counter("packets_out");
+    private final Metrics.Counter bytesOut = metrics.counter("bytes_out");
+    private final Metrics.Counter sendDrops = metrics.counter("send_drops");
+    private final Metrics.Histogram broadcastBuild = metrics.histogram("broadcast_build_micros");
+    private final Metrics.Histogram broadcastSend = metrics.histogram("broadcast_send_micros");
+    private final Metrics.Histogram rttSamples = metrics.histogram("client_rtt_micros");
+    // Summary of the arrival table, refreshed after every broadcast and exposed as gauges
+    private volatile long rttMedianMicros, rttMaxMicros, offsetMaxMillis, clientHeartbeats;
+
+    private ClientTable clients; // Active clients: address and acknowledged version
+    private AvailabilityState availability; // Versioned membership & file lists for broadcasts
+    private ExpiryWheel expiryWheel; // Liveness deadline per client, touched on every heartbeat
+    private PhiAccrualDetector phiDetector; // Adaptive deadlines; null = fixed TIMEOUT
+    private ArrivalTable arrivals; // Server-side receive times, RTT & clock offset per client
+    private final long startNanos = System.nanoTime(); // Origin of the monotonic clock used for liveness
 
     public Server() {
         super("server", "127.0.0.1", 5000, ""); // Initialize Node with server details
 
         try {
-            System.out.println("Server is starting...");
-
             // Load configuration
             ConfigReader config = new ConfigReader("ClientServer/server_config.properties");
+            Log.setDefaultLevel(Log.parse(config.getProperty("log_level", null), Log.Level.INFO));
+            String logFile = config.getProperty("log_file", "");
+            if (!logFile.isEmpty()) {
+                Log.setFile(logFile);
+            }
+            LOG.info("Server is starting...");
             setIpAddress(config.getProperty("server_ip", "127.0.0.1"));
             setPort(config.getIntProperty("server_port", 5000));
 
-            // Bind socket to server IP and port
-            InetAddress serverAddress = InetAddress.getByName(getIpAddress());
-            socket = new DatagramSocket(getPort(), serverAddress);
+            mtu = config.getIntProperty("mtu", 1200);
+            broadcastInterval = config.getIntProperty("broadcast_interval_ms", 30000);
+            headerNodeIds = config.getProperty("node_id", "address").equalsIgnoreCase("header");
+            int queueCapacity = config.getIntProperty("queue_capacity", 65536);
+            int workerThreads = config.getIntProperty("worker_threads", 2);
+            boolean reusePort = config.getProperty("receive_mode", "single").equalsIgnoreCase("reuseport");
+            int socketCount = reusePort ? Math.max(1, config.getIntProperty("receive_sockets",
+                    Runtime.getRuntime().availableProcessors())) : 1;
+
+            // Bind channel(s) to server IP and port
+            InetSocketAddress serverAddress = new InetSocketAddress(InetAddress.getByName(getIpAddress()), getPort());
+            channels = new DatagramChannel[socketCount];
+            for (int i = 0; i < socketCount; i++) {
+                channels[i] = openChannel(serverAddress, reusePort);
+            }
 
-            clientData = new ConcurrentHashMap<>();
-            clientAddresses = new ConcurrentHashMap<>();
+            clients = new ClientTable(socketCount);
+            arrivals = new ArrivalTable(1024);
+            expiryWheel = new ExpiryWheel(config.getIntProperty("monitor_tick_ms", 1000), TIMEOUT,
+                    monotonicMillis(System.nanoTime()));
+            if (config.getProperty("failure_detector", "fixed").equalsIgnoreCase("phi")) {
+                phiDetector = new PhiAccrualDetector(config.getIntProperty("phi_window", 100),
+                        Double.parseDouble(config.getProperty("phi_threshold", "8")),
+                        config.getIntProperty("phi_min_std_ms", 500),
+                        config.getIntProperty("phi_acceptable_pause_ms", 3000), TIMEOUT);
+            }
+            availability = new AvailabilityState(config.getIntProperty("delta_log_size", 4096),
+                    config.getIntProperty("snapshot_lag", 1024));
 
+            // Each socket gets its own receive thread, queue and workers
+            receiveLoops = new ReceiveLoop[socketCount];
+            List<BlockingQueue<Heartbeat>> queues = new ArrayList<>();
             executorService = Executors.newCachedThreadPool();
+            for (int i = 0; i < socketCount; i++) {
+                BlockingQueue<Heartbeat> queue = new ArrayBlockingQueue<>(queueCapacity);
+                queues.add(queue);
+                Reassembler reassembler = new Reassembler(
+                        config.getIntProperty("reassembly_max_messages", 1024),
+                        config.getIntProperty("reassembly_max_bytes", 8 * 1024 * 1024),
+                        config.getIntProperty("reassembly_timeout_ms", 5000));
+                receiveLoops[i] = new ReceiveLoop(channels[i], Fragmenter.MAX_DATAGRAM, queue, reassembler, metrics);
+                executorService.execute(receiveLoops[i]);
+                for (int w = 0; w < workerThreads; w++) {
+                    executorService.execute(() -> processHeartbeats(queue));
+                }
+            }
+            sendSelector = Selector.open();
+            channels[0].register(sendSelector, SelectionKey.OP_WRITE);
+
+            metrics.gauge("clients_active", clients::size);
+            metrics.gauge("log_dropped", Log::getDropped);
+            metrics.gauge("availability_version", availability::getVersion);
+            metrics.gauge("client_rtt_median_micros", () -> rttMedianMicros);
+            metrics.gauge("client_rtt_max_micros", () -> rttMaxMicros);
+            metrics.gauge("client_offset_max_millis", () -> offsetMaxMillis);
+            metrics.gauge("client_heartbeats", () -> clientHeartbeats);
+            metrics.gauge("queue_depth", () -> {
+                long depth = 0;
+                for (BlockingQueue<Heartbeat> queue : queues) {
+                    depth += queue.size();
+                }
+                return depth;
+            });
+            int metricsPort = config.getIntProperty("metrics_port", 0);
+            if (metricsPort > 0) {
+                metrics.serve(metricsPort);
+                LOG.info("Metrics at http://127.0.0.1:" + metricsPort + "/metrics");
+            }
+            if (Boolean.parseBoolean(config.getProperty("metrics_jmx", "true"))) {
+                metrics.registerMBean();
+            }
 
-            System.out.println("Server is listening on " + getIpAddress() + ":" + getPort());
+            LOG.info("Server is listening on " + getIpAddress() + ":" + getPort()
+                    + (reusePort ? " with " + socketCount + " SO_REUSEPORT sockets" : ""));
 
             // Start server threads
-            executorService.execute(this::listenForClients);
             executorService.execute(this::monitorClients);
             executorService.execute(this::broadcastUpdates);
 
         } catch (Exception e) {
-            e.printStackTrace();
+            LOG.error("Server failed to start", e);
+        }
+    }
+
+    // State only, no sockets or threads: lets benchmarks drive the heartbeat and broadcast paths directly
+    Server(int mtu, int shards) {
+        super("server", "127.0.0.1", 0, "");
+        this.mtu = mtu;
+        clients = new ClientTable(shards);
+        arrivals = new ArrivalTable(1024);
+        expiryWheel = new ExpiryWheel(1000, TIMEOUT, monotonicMillis(System.nanoTime()));
+        availability = new AvailabilityState(4096, 1024);
+    }
+
+    int getAvailabilityVersion() {
+        return availability.getVersion();
+    }
+
+    int getAvailabilityEpoch() {
+        return availability.getEpoch();
+    }
+
+    // Opens a channel on the server address, sharing the port with the others when reusePort is set
+    private static DatagramChannel openChannel(InetSocketAddress address, boolean reusePort) throws IOException {
+        DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        if (reusePort) {
+            if (!channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                channel.close();
+                throw new IOException("SO_REUSEPORT is not supported on this platform");
+            }
+            channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
         }
+        channel.bind(address);
+        return channel;
     }
 
     /**
-     * Thread 1: Listens for incoming heartbeats from clients.
+     * Thread 1: Workers that apply heartbeats queued by a receive loop.
      */
-    private void listenForClients() {
-        try {
-            while (true) {
-                byte[] buffer = new byte[BUFFER_SIZE];
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                socket.receive(packet);
+    private void processHeartbeats(BlockingQueue<Heartbeat> queue) {
+        while (true) {
+            try {
+                Heartbeat heartbeat = queue.take();
+                if (heartbeat.message.getPayload().equals(HeartbeatPayload.STATS)) {
+                    sendStats(heartbeat.source);
+                    continue;
+                }
+                int node = handleHeartbeat(heartbeat);
+                processed.increment();
+                if (LOG.isEnabled(Log.Level.DEBUG)) {
+                    LOG.debug("Received heartbeat from node (" + Protocol.formatAddress(node) + ")");
+                }
+            } catch (InterruptedException e) {
+                LOG.warn("Heartbeat worker interrupted, stopping");
+                return;
+            }
+        }
+    }
 
-                // Extract client IP and port
-                InetAddress clientIP = packet.getAddress();
-                int clientPort = packet.getPort();
-                String nodeId = clientIP.getHostAddress(); // Use actual IP as nodeId
+    // Applies one heartbeat to the client table, listings and liveness state; returns the client's node id
+    int handleHeartbeat(Heartbeat heartbeat) {
+        // Extract client IP and port
+        InetSocketAddress source = heartbeat.source;
+        int node = headerNodeIds && heartbeat.message.getNodeAddress() != 0
+                ? heartbeat.message.getNodeAddress() // IPv4 the client put in the header (load generators)
+                : ClientTable.pack(source.getAddress()); // Use actual IP as nodeId
 
-                // Deserialize received data
-                Protocol receivedMessage = Protocol.deserialize(packet.getData());
+        // Where to reach the client, and the last availability version it applied (the reserve field);
+        // a version from another epoch (an earlier server process) is treated as none, so it gets a snapshot
+        HeartbeatPayload payload = HeartbeatPayload.parse(heartbeat.message.getPayload());
 
-                // Store client's latest data (file list + timestamp)
-                clientData.put(nodeId, receivedMessage);
-                clientAddresses.put(nodeId, new InetSocketAddress(clientIP, clientPort));
+        // Live again before any table sees the node, based on when we received it (never the client's clock):
+        // the monitor evicts only nodes absent from the wheel, checking and removing under its lock
+        long now = monotonicMillis(heartbeat.receivedNanos);
+        synchronized (expiryWheel) {
+            expiryWheel.touch(node, phiDetector != null ? phiDetector.heartbeat(node, now) : now + TIMEOUT);
+        }
+        clients.update(node, source, payload.availabilityEpoch == availability.getEpoch()
+                ? heartbeat.message.getReserve() : -1);
+        if (payload.listVersion < 0) {
+            availability.updateListing(node, payload.listing); // Unversioned full listing
+        } else {
+            int held = availability.updateListing(node, payload.listVersion, payload.listBase, payload.listing);
+            if (held != payload.listBase) {
+                sendListingAck(source, held); // Client's idea of what we hold is out of date
+            }
+        }
 
-                System.out.println("[Server] Received heartbeat from node (" + nodeId + ")");
+        arrivals.recordArrival(node);
+        if (payload.echoTimestamp >= 0) {
+            long rtt = arrivals.recordEcho(node, payload.echoTimestamp, payload.echoHoldMillis,
+                    heartbeat.message.getTimestamp(), heartbeat.receivedMillis);
+            if (rtt >= 0) {
+                rttSamples.record(rtt);
             }
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
         }
+        return node;
     }
 
     /**
@@ -83,76 +243,221 @@ public class Server extends Node {
     private void monitorClients() {
         while (true) {
             try {
-                Thread.sleep(30000); // Check every 30 seconds
-                long currentTime = System.currentTimeMillis();
-    
-                // Track inactive clients
-                List<String> inactiveNodes = new ArrayList<>();
-    
-                Iterator<Map.Entry<String, Protocol>> iterator = clientData.entrySet().iterator();
-                while (iterator.hasNext()) {
-                    Map.Entry<String, Protocol> entry = iterator.next();
-                    String nodeId = entry.getKey();
-                    long lastUpdate = entry.getValue().getTimestamp();
-    
-                    // Check if client is inactive
-                    if (currentTime - lastUpdate > TIMEOUT) {
-                        if (clientData.containsKey(nodeId)) {
-                            System.out.println("[Server] Node " + nodeId + " is now inactive.");
-                        }
-                        inactiveNodes.add(nodeId);
-                        iterator.remove(); // Removes from clientData
-                        clientAddresses.remove(nodeId);
+                Thread.sleep(expiryWheel.getTickMillis()); // Check once per tick
+
+                // Only clients whose deadline passed since the last tick are visited
+                long now = monotonicMillis(System.nanoTime());
+                int[] inactiveNodes = expiryWheel.advance(now);
+
+                StringJoiner names = new StringJoiner(", ", "Inactive clients: ", "");
+                int evicted = 0;
+                for (int node : inactiveNodes) {
+                    if (evict(node, now)) {
+                        names.add(Protocol.formatAddress(node));
+                        evicted++;
                     }
                 }
     
-                // Print inactive nodes if any were found
-                if (!inactiveNodes.isEmpty()) {
-                    System.out.println("[Server] Inactive clients: " + String.join(", ", inactiveNodes));
+                // Print the nodes actually evicted, if any
+                if (evicted > 0 && LOG.isEnabled(Log.Level.INFO)) {
+                    LOG.info(names.toString());
                 }
             } catch (InterruptedException e) {
-                e.printStackTrace();
+                LOG.warn("Monitor interrupted", e);
             }
         }
     }
     
+    // Drops an expired node from every table unless a heartbeat touched it again; returns whether it was dropped
+    private boolean evict(int node, long now) {
+        synchronized (expiryWheel) {
+            if (expiryWheel.contains(node)) {
+                return false; // Heartbeat arrived while we were expiring it
+            }
+            if (clients.contains(node)) {
+                evictions.increment();
+                if (LOG.isEnabled(Log.Level.INFO)) {
+                    LOG.info("Node " + Protocol.formatAddress(node) + " is now inactive." + (phiDetector != null
+                            ? String.format(" (phi=%.1f)", phiDetector.phi(node, now)) : ""));
+                }
+            }
+            clients.remove(node);
+            availability.removeNode(node);
+            arrivals.remove(node);
+            if (phiDetector != null) {
+                phiDetector.remove(node);
+            }
+            return true;
+        }
+    }
+
     /**
      * Thread 3: Broadcasts availability & file listings to all clients.
      */
     private void broadcastUpdates() {
         while (true) {
             try {
-                Thread.sleep(30000); // Send updates every 30 seconds
+                Thread.sleep(broadcastInterval); // Send updates every 30 seconds by default
 
-                if (clientData.isEmpty()) {
-                    System.out.println("[Server] No active clients to broadcast updates.");
+                if (clients.isEmpty()) {
+                    LOG.debug("No active clients to broadcast updates.");
                     continue;
                 }
 
-                // Build a message containing active clients & their files
-                StringBuilder combinedPayload = new StringBuilder();
-                for (Map.Entry<String, Protocol> entry : clientData.entrySet()) {
-                    String nodeId = entry.getKey();
-                    String fileList = entry.getValue().getPayload();
-                    combinedPayload.append(nodeId).append("::").append(fileList).append("\n");
+                List<InetSocketAddress> targets = new ArrayList<>();
+                List<Integer> acked = new ArrayList<>();
+                int version = availability.getVersion();
+                long start = System.nanoTime();
+                Map<Integer, List<ByteBuffer>> updates = buildUpdates(targets, acked, System.currentTimeMillis());
+                long built = System.nanoTime();
+                int sent = 0, incomplete = 0;
+                for (int i = 0; i < targets.size(); i++) {
+                    List<ByteBuffer> datagrams = updates.get(acked.get(i));
+                    if (datagrams == null) {
+                        continue; // Client is already up to date
+                    }
+                    boolean complete = true;
+                    for (ByteBuffer datagram : datagrams) {
+                        datagram.rewind();
+                        complete &= send(datagram, targets.get(i)) > 0;
+                    }
+                    if (complete) {
+                        sent++;
+                    } else {
+                        incomplete++; // It keeps acking the old version, so the next broadcast resends
+                    }
                 }
+                long done = System.nanoTime();
+                broadcastBuild.record((built - start) / 1000);
+                broadcastSend.record((done - built) / 1000);
+
+                LOG.info("Sent updated client availability (version " + version + ") to " + sent + " of "
+                        + targets.size() + " clients (build " + (built - start) / 1_000_000 + " ms, send "
+                        + (done - built) / 1_000_000 + " ms)."
+                        + (incomplete > 0 ? " " + incomplete + " incomplete, socket buffer full." : ""));
+                updateClockEstimates();
+            } catch (IOException e) {
+                LOG.error("Broadcast failed", e);
+            } catch (InterruptedException e) {
+                LOG.warn("Broadcast interrupted", e);
+            }
+        }
+    }
+
+    /**
+     * Collects every client's address and acknowledged version into targets and acked,
+     * and encodes one update per distinct acknowledged version. Clients that are
+     * already current have no entry in the returned map.
+     */
+    Map<Integer, List<ByteBuffer>> buildUpdates(List<InetSocketAddress> targets, List<Integer> acked, long now) {
+        // Each client reports the last version it applied in the heartbeat's reserve field
+        clients.forEach((node, address, ackedVersion) -> {
+            targets.add(address);
+            acked.add(ackedVersion);
+        });
+
+        // Clients that acknowledged the same version share one encoded (and fragmented) update
+        Map<Integer, List<ByteBuffer>> updates = new HashMap<>();
+        for (int i = 0; i < targets.size(); i++) {
+            updates.computeIfAbsent(acked.get(i), ack -> {
+                String update = availability.buildUpdate(ack);
+                return update == null ? null
+                        : Fragmenter.split(new Protocol(1, false, "server", now, 0, update), mtu);
+            });
+        }
+        return updates;
+    }
+
+    // Tells a client which version of its listing we hold, so its next heartbeat can be a delta
+    private void sendListingAck(InetSocketAddress client, int listingVersion) {
+        if (channels == null) {
+            return; // State-only server, nothing to send on
+        }
+        Protocol ack = new Protocol(1, false, "server", System.currentTimeMillis(), listingVersion,
+                HeartbeatPayload.ACK);
+        try {
+            send(ByteBuffer.wrap(ack.serialize()), client);
+        } catch (IOException e) {
+            LOG.warn("Could not send listing ack to " + client, e);
+        }
+    }
 
-                // Create a Protocol object containing all updates
-                Protocol combinedUpdate = new Protocol(1, false, "server", System.currentTimeMillis(), 0, combinedPayload.toString());
-                byte[] data = combinedUpdate.serialize();
+    // Answers an @stats request with the receive and processing counters summed over all sockets
+    private void sendStats(InetSocketAddress requester) {
+        String stats = HeartbeatPayload.STATS + " received=" + metrics.counter("packets_in").get()
+                + " processed=" + processed.get() + " dropped=" + metrics.counter("queue_drops").get()
+                + " malformed=" + metrics.counter("decode_failures").get() + " clients=" + clients.size()
+                + " version=" + availability.getVersion();
+        Protocol reply = new Protocol(1, false, "server", System.currentTimeMillis(), 0, stats);
+        try {
+            send(ByteBuffer.wrap(reply.serialize()), requester);
+        } catch (IOException e) {
+            LOG.warn("Could not send stats to " + requester, e);
+        }
+    }
 
-                // Send ONE packet to each active client
-                for (InetSocketAddress clientAddress : clientAddresses.values()) {
-                    DatagramPacket packet = new DatagramPacket(data, data.length,
-                            clientAddress.getAddress(), clientAddress.getPort());
-                    socket.send(packet);
+    /**
+     * Sends one datagram on channels[0]. The channel is non-blocking, so a full
+     * socket buffer makes send() return 0 without sending; we then wait for
+     * OP_WRITE and retry, for at most SEND_WAIT_NANOS. Returns the bytes sent,
+     * or 0 if the datagram was dropped (counted in send_drops).
+     */
+    private int send(ByteBuffer datagram, InetSocketAddress target) throws IOException {
+        int bytes = channels[0].send(datagram, target);
+        if (bytes == 0) {
+            synchronized (sendSelector) {
+                long deadline = System.nanoTime() + SEND_WAIT_NANOS;
+                while ((bytes = channels[0].send(datagram, target)) == 0) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        sendDrops.increment();
+                        if (LOG.isEnabled(Log.Level.WARN)) {
+                            LOG.warn("Socket buffer full, dropped a datagram to " + target);
+                        }
+                        return 0;
+                    }
+                    sendSelector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+                    sendSelector.selectedKeys().clear();
                 }
+            }
+        }
+        packetsOut.increment();
+        bytesOut.add(bytes);
+        return bytes;
+    }
 
-                System.out.println("[Server] Sent updated client availability.");
-            } catch (IOException | InterruptedException e) {
-                e.printStackTrace();
+    private long monotonicMillis(long nanos) {
+        return (nanos - startNanos) / 1_000_000;
+    }
+
+    // Summarizes the per-client RTT and clock offset estimates into the gauges and the log
+    private void updateClockEstimates() {
+        long[] rtt = new long[arrivals.size() + 1];
+        long[] worstOffset = new long[1];
+        int[] worstNode = new int[1];
+        int[] samples = new int[1];
+        long[] heartbeats = new long[1];
+        arrivals.forEach(clock -> {
+            heartbeats[0] += clock.heartbeats;
+            if (clock.rttMicros >= 0 && samples[0] < rtt.length) {
+                rtt[samples[0]++] = clock.rttMicros;
+                if (Math.abs(clock.offsetMillis) >= Math.abs(worstOffset[0])) {
+                    worstOffset[0] = clock.offsetMillis;
+                    worstNode[0] = clock.nodeId;
+                }
             }
+        });
+        clientHeartbeats = heartbeats[0];
+        if (samples[0] == 0) {
+            return;
         }
+        Arrays.sort(rtt, 0, samples[0]);
+        rttMedianMicros = rtt[samples[0] / 2];
+        rttMaxMicros = rtt[samples[0] - 1];
+        offsetMaxMillis = worstOffset[0];
+        LOG.info(String.format("Clock estimates for %d clients: median RTT %.1f ms, max RTT %.1f ms, "
+                        + "largest offset %d ms (%s)", samples[0], rtt[samples[0] / 2] / 1000.0,
+                rtt[samples[0] - 1] / 1000.0, worstOffset[0], Protocol.formatAddress(worstNode[0])));
     }
 
     public static void main(String[] args) {
@@ -4,27 +4,39 @@ import java.io.*;
 import java.util.*;
 
 public class ConfigReaderP2P {
+    // One node per line: id,ip,port,homeDirectory[,fileServerPort]; homeDirectory "-" = shares nothing
     public static List<Node> readConfig(String filePath) throws IOException {
         System.out.println("Reading P2P configuration file: " + filePath);
         List<Node> nodes = new ArrayList<>();
-        BufferedReader reader = new BufferedReader(new FileReader(filePath));
-        String line;
-
-        while ((line = reader.readLine()) != null) {
-            if (line.trim().isEmpty() || line.startsWith("#")) {
-                continue; // Skip empty lines and comments
+        Set<Integer> ids = new HashSet<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue; // Skip empty lines and comments
+                }
+                String[] parts = line.split(",");
+                if (parts.length < 4 || parts.length > 5) {
+                    throw new IOException(filePath + ":" + lineNumber + ": expected id,ip,port,home[,filePort]");
+                }
+                try {
+                    int nodeID = Integer.parseInt(parts[0].trim());
+                    String ipAddress = parts[1].trim();
+                    int port = Integer.parseInt(parts[2].trim());
+                    String homeDir = parts[3].trim();
+                    int fileServerPort = parts.length > 4 ? Integer.parseInt(parts[4].trim()) : 0;
+                    if (!ids.add(nodeID)) {
+                        throw new IOException(filePath + ":" + lineNumber + ": duplicate node id " + nodeID);
+                    }
+                    nodes.add(new Node(nodeID, ipAddress, port, homeDir.equals("-") ? null : homeDir, fileServerPort));
+                } catch (NumberFormatException e) {
+                    throw new IOException(filePath + ":" + lineNumber + ": " + e.getMessage());
+                }
             }
-            String[] parts = line.split(",");
-            int nodeID = Integer.parseInt(parts[0].trim());
-            String ipAddress = parts[1].trim();
-            int port = Integer.parseInt(parts[2].trim());
-            String homeDir = parts[3].trim();
-
-            Node nodeInfo = new Node(nodeID, ipAddress, port, homeDir);
-            nodes.add(nodeInfo);
         }
-
-        reader.close();
         return nodes;
     }
 }
@@ -0,0 +1,509 @@
+package PeerToPeer;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.*;
+import ClientServer.Fragmenter;
+
+/**
+ * SWIM-style membership (Das, Gupta, Motivala 2002) for peers.
+ *
+ * Instead of every peer heartbeating every other peer, each protocol period a
+ * node pings one member, taken from a shuffled round-robin list. If no ACK
+ * arrives within ackTimeout it asks k other members to ping the target for it
+ * (PING_REQ). Without an ACK by the end of the period the target becomes
+ * SUSPECT; unless it refutes the suspicion with a higher incarnation within
+ * suspicionTimeout it is declared DEAD.
+ *
+ * Membership changes are not broadcast: every message carries a few recent
+ * updates (alive / suspect / dead) and each update is retransmitted about
+ * 3 log2(n) times. So a node sends O(1) messages of bounded size per period
+ * no matter how large the cluster grows.
+ *
+ * Messages are Protocol datagrams: reserve holds the type, the payload is a
+ * "seq [target]" line followed by update lines "A|S|D id host:port incarnation".
+ *
+ * A Gossip instance is single-threaded: run() drives it from its own thread,
+ * or a harness can call drain() and tick() itself (see GossipSimulation).
+ * An application sharing the socket (Peer) hears about members through a
+ * Listener and gets its own datagrams (other reserve values, fragments)
+ * through a Receiver, both called on that thread.
+ */
+public class Gossip {
+    static final int PING = 1, ACK = 2, PING_REQ = 3;
+    static final char ALIVE = 'A', SUSPECT = 'S', DEAD = 'D';
+
+    private static final int BUFFER_SIZE = 1500;
+    private static final int MAX_PIGGYBACK = 32; // Updates per message, keeps datagrams under one MTU
+    private static final int MAX_PAYLOAD = 1200; // Stop piggybacking past this many characters (long IPv6 addresses)
+    private static final long TOMBSTONE_MILLIS = 60000; // How long DEAD entries block stale ALIVE updates
+    private static final int RESERVE_OFFSET = Protocol.HEADER_SIZE - 2 * Integer.BYTES; // Reserve and length end the header
+
+    private final int nodeId;
+    private final DatagramChannel channel;
+    private final InetSocketAddress self;
+    private final long periodMillis;
+    private final long ackTimeout;
+    private final long suspicionTimeout;
+    private final int indirectProbes; // k
+    private final Random random = new Random();
+
+    private final Map<Integer, Member> members = new HashMap<>();
+    private final List<Integer> probeOrder = new ArrayList<>(); // Each id in members exactly once, DEAD ones skipped
+    private int probeIndex;
+    private int incarnation;
+
+    // Current probe
+    private int probeTarget = -1;
+    private int probeSeq;
+    private boolean probeAcked, indirectSent;
+    private long nextPeriod, indirectAt;
+
+    // PING_REQs we relay: our ping seq -> who asked and with which seq
+    private final Map<Integer, Relay> relays = new HashMap<>();
+    private int nextSeq;
+
+    // Updates waiting to be piggybacked, at most one per member
+    private final Map<Integer, Update> updates = new LinkedHashMap<>();
+
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private volatile long messagesSent, bytesSent; // Written by the Gossip thread only, read by metrics
+    private Listener listener;
+    private Receiver receiver;
+
+    /** Membership changes: a member joined or came back, or was declared DEAD. */
+    public interface Listener {
+        void memberUp(int id, InetSocketAddress address);
+
+        void memberDown(int id);
+    }
+
+    /** Datagrams on the channel that are not gossip messages; the buffer is only valid during the call. */
+    public interface Receiver {
+        void receive(ByteBuffer datagram, InetSocketAddress source);
+    }
+
+    static final class Member {
+        final int id;
+        InetSocketAddress address;
+        int incarnation;
+        char state = ALIVE;
+        long deadline; // SUSPECT: when it becomes DEAD; DEAD: when the tombstone is dropped
+
+        Member(int id, InetSocketAddress address, int incarnation) {
+            this.id = id;
+            this.address = address;
+            this.incarnation = incarnation;
+        }
+    }
+
+    private static final class Update {
+        final char state;
+        final int id;
+        final InetSocketAddress address;
+        final int incarnation;
+        int transmissions;
+
+        Update(char state, int id, InetSocketAddress address, int incarnation) {
+            this.state = state;
+            this.id = id;
+            this.address = address;
+            this.incarnation = incarnation;
+        }
+    }
+
+    private static final class Relay {
+        final InetSocketAddress requester;
+        final int requesterSeq;
+        final long expires;
+
+        Relay(InetSocketAddress requester, int requesterSeq, long expires) {
+            this.requester = requester;
+            this.requesterSeq = requesterSeq;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * @param channel          bound channel; switched to non-blocking mode
+     * @param self             address other members should use to reach us
+     * @param periodMillis     protocol period, one direct probe each
+     * @param indirectProbes   members asked to probe on our behalf (k)
+     * @param suspicionTimeout time a SUSPECT member gets to refute before it is DEAD
+     */
+    public Gossip(int nodeId, DatagramChannel channel, InetSocketAddress self, long periodMillis,
+                  int indirectProbes, long suspicionTimeout) throws IOException {
+        this.nodeId = nodeId;
+        this.channel = channel;
+        this.self = self;
+        this.periodMillis = periodMillis;
+        this.ackTimeout = Math.max(1, periodMillis / 3);
+        this.indirectProbes = indirectProbes;
+        this.suspicionTimeout = suspicionTimeout;
+        channel.configureBlocking(false);
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    public DatagramChannel getChannel() {
+        return channel;
+    }
+
+    public long getMessagesSent() {
+        return messagesSent;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setReceiver(Receiver receiver) {
+        this.receiver = receiver;
+    }
+
+    // Members currently believed alive (suspects included, as SWIM does), not counting ourselves
+    public int aliveCount() {
+        int alive = 0;
+        for (Member member : members.values()) {
+            if (member.state != DEAD) {
+                alive++;
+            }
+        }
+        return alive;
+    }
+
+    public boolean isAlive(int id) {
+        Member member = members.get(id);
+        return member != null && member.state != DEAD;
+    }
+
+    public boolean knows(int id) {
+        return members.containsKey(id);
+    }
+
+    // Announces ourselves to the seeds; they add us on the first message and gossip it on
+    public void join(List<InetSocketAddress> seeds) throws IOException {
+        for (InetSocketAddress seed : seeds) {
+            if (!seed.equals(self)) {
+                send(seed, PING, nextSeq++, null);
+            }
+        }
+    }
+
+    /**
+     * Runs the protocol until the thread is interrupted or the channel closes.
+     */
+    public void run() throws IOException {
+        try (Selector selector = Selector.open()) {
+            channel.register(selector, SelectionKey.OP_READ);
+            while (!Thread.currentThread().isInterrupted() && channel.isOpen()) {
+                long now = monotonicMillis();
+                tick(now);
+                long due = probeTarget >= 0 && !probeAcked && !indirectSent ? Math.min(nextPeriod, indirectAt) : nextPeriod;
+                if (selector.select(Math.max(1, due - now)) > 0) {
+                    selector.selectedKeys().clear();
+                    drain(monotonicMillis());
+                }
+            }
+        }
+    }
+
+    static long monotonicMillis() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    // Handles every datagram waiting on the channel
+    public void drain(long now) throws IOException {
+        while (true) {
+            receiveBuffer.clear();
+            SocketAddress source = channel.receive(receiveBuffer);
+            if (source == null) {
+                return;
+            }
+            receiveBuffer.flip();
+            if (receiver != null && !isGossip(receiveBuffer)) {
+                receiver.receive(receiveBuffer, (InetSocketAddress) source);
+                continue;
+            }
+            try {
+                handle(Protocol.decode(receiveBuffer), (InetSocketAddress) source, now);
+            } catch (ProtocolException | RuntimeException e) {
+                // Malformed datagram, skip it
+            }
+        }
+    }
+
+    private static boolean isGossip(ByteBuffer datagram) {
+        if (Fragmenter.isFragment(datagram) || datagram.remaining() < Protocol.HEADER_SIZE) {
+            return false;
+        }
+        int type = datagram.getInt(datagram.position() + RESERVE_OFFSET);
+        return type >= PING && type <= PING_REQ;
+    }
+
+    // Advances timers: ends the probe period, sends indirect probes, expires suspects and relays
+    public void tick(long now) throws IOException {
+        if (probeTarget >= 0 && !probeAcked && !indirectSent && now >= indirectAt) {
+            sendPingReqs();
+        }
+        if (now >= nextPeriod) {
+            if (probeTarget >= 0 && !probeAcked) {
+                Member target = members.get(probeTarget);
+                if (target != null && target.state == ALIVE) {
+                    suspect(target, target.incarnation, now);
+                }
+            }
+            startProbe(now);
+            nextPeriod = now + periodMillis;
+        }
+
+        for (Iterator<Member> it = members.values().iterator(); it.hasNext(); ) {
+            Member member = it.next();
+            if (member.state == SUSPECT && now >= member.deadline) {
+                member.state = DEAD;
+                member.deadline = now + TOMBSTONE_MILLIS;
+                enqueue(DEAD, member.id, member.address, member.incarnation);
+                if (listener != null) {
+                    listener.memberDown(member.id);
+                }
+            } else if (member.state == DEAD && now >= member.deadline) {
+                it.remove();
+                removeFromProbeOrder(member.id);
+            }
+        }
+        relays.values().removeIf(relay -> now >= relay.expires);
+    }
+
+    private void startProbe(long now) throws IOException {
+        probeTarget = -1;
+        probeAcked = false;
+        indirectSent = false;
+        for (int tries = 0; tries < probeOrder.size(); tries++) {
+            if (probeIndex >= probeOrder.size()) {
+                Collections.shuffle(probeOrder, random); // New round: fresh random order, as in SWIM
+                probeIndex = 0;
+            }
+            Member member = members.get(probeOrder.get(probeIndex++));
+            if (member != null && member.state != DEAD) {
+                probeTarget = member.id;
+                probeSeq = nextSeq++;
+                indirectAt = now + ackTimeout;
+                send(member.address, PING, probeSeq, null);
+                return;
+            }
+        }
+    }
+
+    private void sendPingReqs() throws IOException {
+        indirectSent = true;
+        Member target = members.get(probeTarget);
+        if (target == null) {
+            return;
+        }
+        List<Member> helpers = new ArrayList<>();
+        for (Member member : members.values()) {
+            if (member.state == ALIVE && member.id != probeTarget) {
+                helpers.add(member);
+            }
+        }
+        Collections.shuffle(helpers, random);
+        String request = target.id + " " + format(target.address);
+        for (int i = 0; i < Math.min(indirectProbes, helpers.size()); i++) {
+            send(helpers.get(i).address, PING_REQ, probeSeq, request);
+        }
+    }
+
+    private void handle(Protocol msg, InetSocketAddress source, long now) throws IOException {
+        String payload = msg.getPayload();
+        int lineEnd = payload.indexOf('\n');
+        String[] header = (lineEnd < 0 ? payload : payload.substring(0, lineEnd)).split(" ");
+        int seq = Integer.parseInt(header[0]);
+
+        // The sender is alive and reachable at source; new members join this way
+        if (msg.getNodeId() != nodeId && !members.containsKey(msg.getNodeId())) {
+            addMember(msg.getNodeId(), source, 0);
+            enqueue(ALIVE, msg.getNodeId(), source, 0);
+        }
+        if (lineEnd >= 0) {
+            applyUpdates(payload.substring(lineEnd + 1), now);
+        }
+
+        switch (msg.getReserve()) {
+            case PING:
+                send(source, ACK, seq, null);
+                break;
+            case ACK:
+                // Acks forwarded by a PING_REQ helper come from the helper, so match on seq alone
+                if (seq == probeSeq) {
+                    probeAcked = true;
+                }
+                Relay relay = relays.remove(seq);
+                if (relay != null) {
+                    send(relay.requester, ACK, relay.requesterSeq, null);
+                }
+                break;
+            case PING_REQ:
+                if (header.length >= 3) {
+                    int relaySeq = nextSeq++;
+                    relays.put(relaySeq, new Relay(source, seq, now + periodMillis));
+                    send(parse(header[2]), PING, relaySeq, null);
+                }
+                break;
+        }
+    }
+
+    private void applyUpdates(String lines, long now) {
+        for (String line : lines.split("\n")) {
+            String[] parts = line.split(" ");
+            if (parts.length < 4) {
+                continue;
+            }
+            char state = parts[0].charAt(0);
+            int id = Integer.parseInt(parts[1]);
+            InetSocketAddress address = parse(parts[2]);
+            int inc = Integer.parseInt(parts[3]);
+
+            if (id == nodeId) {
+                if (state != ALIVE && inc >= incarnation) {
+                    incarnation = inc + 1; // Refute: we are alive, with a newer incarnation
+                    enqueue(ALIVE, nodeId, self, incarnation);
+                }
+                continue;
+            }
+            Member member = members.get(id);
+            switch (state) {
+                case ALIVE:
+                    if (member == null) {
+                        addMember(id, address, inc);
+                        enqueue(ALIVE, id, address, inc);
+                    } else if (inc > member.incarnation) {
+                        boolean revived = member.state == DEAD; // Still in probeOrder until its tombstone goes
+                        boolean moved = !address.equals(member.address);
+                        member.incarnation = inc;
+                        member.address = address;
+                        member.state = ALIVE;
+                        enqueue(ALIVE, id, address, inc);
+                        if ((revived || moved) && listener != null) {
+                            listener.memberUp(id, address);
+                        }
+                    }
+                    break;
+                case SUSPECT:
+                    if (member == null) {
+                        member = addMember(id, address, inc);
+                    }
+                    if (inc > member.incarnation || (inc == member.incarnation && member.state == ALIVE)) {
+                        suspect(member, inc, now);
+                    }
+                    break;
+                case DEAD:
+                    if (member != null && member.state != DEAD && inc >= member.incarnation) {
+                        member.state = DEAD;
+                        member.incarnation = inc;
+                        member.deadline = now + TOMBSTONE_MILLIS;
+                        enqueue(DEAD, id, member.address, inc);
+                        if (listener != null) {
+                            listener.memberDown(id);
+                        }
+                    }
+                    break;
+            }
+        }
+    }
+
+    private Member addMember(int id, InetSocketAddress address, int inc) {
+        Member member = new Member(id, address, inc);
+        members.put(id, member);
+        // Insert at a random position so new members are probed within one round
+        probeOrder.add(probeOrder.isEmpty() ? 0 : random.nextInt(probeOrder.size() + 1), id);
+        if (listener != null) {
+            listener.memberUp(id, address);
+        }
+        return member;
+    }
+
+    private void removeFromProbeOrder(int id) {
+        int index = probeOrder.indexOf(id);
+        if (index >= 0) {
+            probeOrder.remove(index);
+            if (index < probeIndex) {
+                probeIndex--; // Keep the rest of the current round in place
+            }
+        }
+    }
+
+    // Length of the probe rotation, one entry per member (for tests)
+    int probeOrderSize() {
+        return probeOrder.size();
+    }
+
+    private void suspect(Member member, int inc, long now) {
+        if (member.state == DEAD) {
+            return;
+        }
+        member.state = SUSPECT;
+        member.incarnation = inc;
+        member.deadline = now + suspicionTimeout;
+        enqueue(SUSPECT, member.id, member.address, inc);
+    }
+
+    private void enqueue(char state, int id, InetSocketAddress address, int inc) {
+        updates.remove(id); // Newer news about a member replaces the old
+        updates.put(id, new Update(state, id, address, inc));
+    }
+
+    private void send(InetSocketAddress target, int type, int seq, String extra) throws IOException {
+        StringBuilder payload = new StringBuilder();
+        payload.append(seq);
+        if (extra != null) {
+            payload.append(' ').append(extra);
+        }
+        appendUpdates(payload);
+
+        Protocol msg = new Protocol(1, true, nodeId, System.currentTimeMillis(), type, payload.toString());
+        sendBuffer.clear();
+        msg.encode(sendBuffer);
+        sendBuffer.flip();
+        bytesSent += sendBuffer.remaining();
+        messagesSent++;
+        channel.send(sendBuffer, target);
+    }
+
+    // Least-sent updates first; each goes out about 3 log2(n) times, then is dropped
+    private void appendUpdates(StringBuilder payload) {
+        if (updates.isEmpty()) {
+            return;
+        }
+        int limit = 3 * (32 - Integer.numberOfLeadingZeros(members.size() + 1));
+        List<Update> pending = new ArrayList<>(updates.values());
+        pending.sort(Comparator.comparingInt(update -> update.transmissions));
+        for (int i = 0; i < Math.min(MAX_PIGGYBACK, pending.size()) && payload.length() < MAX_PAYLOAD; i++) {
+            Update update = pending.get(i);
+            payload.append('\n').append(update.state).append(' ').append(update.id).append(' ')
+                    .append(format(update.address)).append(' ').append(update.incarnation);
+            if (++update.transmissions >= limit) {
+                updates.remove(update.id);
+            }
+        }
+    }
+
+    private static String format(InetSocketAddress address) {
+        return address.getAddress().getHostAddress() + ":" + address.getPort();
+    }
+
+    private static InetSocketAddress parse(String hostPort) {
+        int colon = hostPort.lastIndexOf(':');
+        return new InetSocketAddress(hostPort.substring(0, colon), Integer.parseInt(hostPort.substring(colon + 1)));
+    }
+}
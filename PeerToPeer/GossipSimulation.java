@@ -0,0 +1,127 @@
+package PeerToPeer;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.*;
+
+/**
+ * Runs a whole Gossip cluster on loopback, one UDP socket per node, all driven
+ * from a single thread, and measures:
+ *   - join convergence: every node starts knowing only node 0; time until all know all
+ *   - failure convergence: one node is silenced; time until every other node has it DEAD
+ *   - traffic: messages and bytes sent per node per second in steady state
+ *
+ * Usage: java PeerToPeer.GossipSimulation [clusterSizes] [periodMillis] [k] [suspicionMillis]
+ *   e.g. java PeerToPeer.GossipSimulation 50,100,200,500 200 3 1000
+ */
+public class GossipSimulation {
+    public static void main(String[] args) throws Exception {
+        String[] sizes = (args.length > 0 ? args[0] : "50,100,200").split(",");
+        long period = args.length > 1 ? Long.parseLong(args[1]) : 200;
+        int k = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        long suspicion = args.length > 3 ? Long.parseLong(args[3]) : 5 * period;
+
+        System.out.printf("%6s %10s %12s %12s %14s%n", "nodes", "join s", "failure s", "msgs/node/s", "bytes/node/s");
+        for (String size : sizes) {
+            run(Integer.parseInt(size.trim()), period, k, suspicion);
+        }
+    }
+
+    private static void run(int n, long period, int k, long suspicion) throws Exception {
+        List<Gossip> nodes = new ArrayList<>();
+        try (Selector selector = Selector.open()) {
+            for (int id = 0; id < n; id++) {
+                DatagramChannel channel = DatagramChannel.open();
+                channel.bind(new InetSocketAddress("127.0.0.1", 0));
+                Gossip node = new Gossip(id, channel, (InetSocketAddress) channel.getLocalAddress(), period, k, suspicion);
+                channel.register(selector, SelectionKey.OP_READ, node);
+                nodes.add(node);
+            }
+            List<InetSocketAddress> seed = Collections.singletonList(
+                    (InetSocketAddress) nodes.get(0).getChannel().getLocalAddress());
+            long start = Gossip.monotonicMillis();
+            for (Gossip node : nodes) {
+                node.join(seed);
+            }
+
+            // Join: until everyone counts n - 1 live members
+            long joined = runUntil(selector, nodes, start, 120000, () -> {
+                for (Gossip node : nodes) {
+                    if (node.aliveCount() < n - 1) {
+                        return false;
+                    }
+                }
+                return true;
+            });
+
+            // Steady-state traffic over ten periods
+            long messages = 0, bytes = 0;
+            for (Gossip node : nodes) {
+                messages -= node.getMessagesSent();
+                bytes -= node.getBytesSent();
+            }
+            long steadyStart = Gossip.monotonicMillis();
+            runUntil(selector, nodes, steadyStart, 10 * period, () -> false);
+            double seconds = (Gossip.monotonicMillis() - steadyStart) / 1000.0;
+            for (Gossip node : nodes) {
+                messages += node.getMessagesSent();
+                bytes += node.getBytesSent();
+            }
+
+            // Failure: silence one node (it stops answering) and wait for every other node to declare it dead
+            Gossip victim = nodes.get(n / 2);
+            victim.getChannel().close();
+            List<Gossip> survivors = new ArrayList<>(nodes);
+            survivors.remove(victim);
+            long failStart = Gossip.monotonicMillis();
+            long detected = runUntil(selector, survivors, failStart, 120000, () -> {
+                for (Gossip node : survivors) {
+                    if (node.isAlive(victim.getNodeId())) {
+                        return false;
+                    }
+                }
+                return true;
+            });
+
+            System.out.printf("%6d %10s %12s %12.1f %14.0f%n", n,
+                    joined < 0 ? "timeout" : String.format("%.2f", (joined - start) / 1000.0),
+                    detected < 0 ? "timeout" : String.format("%.2f", (detected - failStart) / 1000.0),
+                    messages / seconds / n, bytes / seconds / n);
+        } finally {
+            for (Gossip node : nodes) {
+                node.getChannel().close();
+            }
+        }
+    }
+
+    interface Condition {
+        boolean holds();
+    }
+
+    // Drives the cluster until done holds or limitMillis pass; returns the time it held, -1 on timeout
+    private static long runUntil(Selector selector, List<Gossip> nodes, long start, long limitMillis,
+                                 Condition done) throws Exception {
+        while (true) {
+            long now = Gossip.monotonicMillis();
+            if (done.holds()) {
+                return now;
+            }
+            if (now - start >= limitMillis) {
+                return -1;
+            }
+            for (Gossip node : nodes) {
+                node.tick(now);
+            }
+            if (selector.select(1) > 0) {
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (key.isValid()) {
+                        ((Gossip) key.attachment()).drain(Gossip.monotonicMillis());
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        }
+    }
+}
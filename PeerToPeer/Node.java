@@ -1,14 +1,20 @@
-package ClientServer;
+package PeerToPeer;
 
 public class Node {
-    private int port;
-    private String nodeId, ipAddress, homeDirectory;
+    private int nodeId, port, fileServerPort;
+    private String ipAddress, homeDirectory;
 
-    public Node(String nodeId, String ipAddress, int port, String homeDirectory) {
+    public Node(int nodeId, String ipAddress, int port, String homeDirectory) {
+        this(nodeId, ipAddress, port, homeDirectory, 0);
+    }
+
+    // fileServerPort = 0 when the node does not serve its home directory
+    public Node(int nodeId, String ipAddress, int port, String homeDirectory, int fileServerPort) {
         this.nodeId = nodeId;
         this.ipAddress = ipAddress;
         this.port = port;
         this.homeDirectory = homeDirectory;
+        this.fileServerPort = fileServerPort;
     }
 
     public Node() {
@@ -16,11 +22,11 @@ public class Node {
     }
 
     // Getters and Setters
-    public String getNodeId() {
+    public int getNodeId() {
         return nodeId;
     }
 
-    public void setNodeId(String nodeId) {
+    public void setNodeId(int nodeId) {
         this.nodeId = nodeId;
     }
 
@@ -40,6 +46,14 @@ public class Node {
         this.port = port;
     }
 
+    public int getFileServerPort() {
+        return fileServerPort;
+    }
+
+    public void setFileServerPort(int fileServerPort) {
+        this.fileServerPort = fileServerPort;
+    }
+
     public String getHomeDirectory() {
         return homeDirectory;
     }
@@ -50,6 +64,7 @@ public class Node {
 
     @Override
     public String toString() {
-        return "Node[ID=" + nodeId + ", IP=" + ipAddress + ", Port=" + port + ", HomeDir=" + homeDirectory + "]";
+        return "Node[ID=" + nodeId + ", IP=" + ipAddress + ", Port=" + port + ", HomeDir=" + homeDirectory
+                + ", FilePort=" + fileServerPort + "]";
     }
 }
@@ -2,98 +2,610 @@ package PeerToPeer;
 
 import java.net.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import ClientServer.ExpiryWheel;
+import ClientServer.Fragmenter;
+import ClientServer.Log;
+import ClientServer.Metrics;
+import ClientServer.PhiAccrualDetector;
+import ClientServer.Reassembler;
+import networking.FileServer;
 
+/**
+ * A peer of the HAC. By default membership and failure detection run through
+ * Gossip (SWIM): each peer probes one member per period, so liveness traffic
+ * per peer does not grow with the cluster. A peer that shares files sends its
+ * listing only when asked (a member came up and requested it) and to every
+ * member when the listing changes. The "fixed" and "phi" modes keep the
+ * original all-to-all heartbeats, each carrying the listing.
+ */
 public class Peer {
-    private static final int PORT = 5000; // Port for communication
+    private static final Log LOG = Log.get("Peer");
+    // Shared by every Peer in this process, so a range of peers reports as one
+    private static final Metrics METRICS = new Metrics("peer");
+    private static final Metrics.Counter PACKETS_OUT = METRICS.counter("packets_out");
+    private static final Metrics.Counter BYTES_OUT = METRICS.counter("bytes_out");
+    private static final Metrics.Counter PACKETS_IN = METRICS.counter("packets_in");
+    private static final Metrics.Counter BYTES_IN = METRICS.counter("bytes_in");
+    private static final Metrics.Counter DECODE_FAILURES = METRICS.counter("decode_failures");
+    private static final Metrics.Counter EVICTIONS = METRICS.counter("evictions");
+    private static final Metrics.Counter TRUNCATED = METRICS.counter("listings_truncated");
+    private static final Metrics.Counter SEND_DROPS = METRICS.counter("send_drops");
+    private static final Set<Peer> RUNNING = ConcurrentHashMap.newKeySet(); // Started peers, for the gauges
     private static final int TIMEOUT = 30000; // 30 seconds timeout for node inactivity
-    private DatagramSocket socket;
+    private static final int BUFFER_SIZE = Fragmenter.MAX_DATAGRAM;
+    private static final int MTU = 1200; // Largest datagram we send; longer heartbeats are fragmented
+    private static final int LISTING_LIMIT = 1 << 20; // UTF-8 bytes of listing per heartbeat; the rest is cut
+    private static final int LISTING_RECEIVE_BUFFER = 4 * LISTING_LIMIT; // A fragmented listing arrives in a burst
+    private static final int CHECK_TICK = 1000; // Resolution of the failure detector
+    private static final int LISTING = 0, LISTING_REQUEST = 4; // Reserve values, beside Gossip's PING, ACK, PING_REQ
+    private static final long GOSSIP_PERIOD = 1000; // One probe per period
+    private static final int INDIRECT_PROBES = 3;
+    private static final long SUSPICION_TIMEOUT = 5 * GOSSIP_PERIOD; // Time a suspect gets to refute before it is DEAD
+    private static final long LISTING_RESCAN = 5000; // How often a sharing peer looks for a changed listing
+    private static final long SEND_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100); // Longest wait for buffer space
+    private DatagramChannel channel;
     private int nodeId;
     private boolean mode = true; // mode=true (1) for Peer-to-Peer, false (0) for Client-Server
     private ConcurrentHashMap<Integer, Long> activePeers; // Stores active peers & last seen time
+    private ExpiryWheel expiryWheel; // Liveness deadline per peer
+    private PhiAccrualDetector phiDetector; // Adaptive deadlines; null = fixed TIMEOUT
+    private Path homeDirectory; // Shared files; null = this peer shares nothing
+    private int fileServerPort;
+    private ConcurrentHashMap<Integer, InetSocketAddress> fileServers = new ConcurrentHashMap<>(); // Per peer
+    private ConcurrentHashMap<Integer, Set<String>> peerFiles = new ConcurrentHashMap<>(); // Advertised listings
+    private final Reassembler reassembler = new Reassembler(64, 4L * LISTING_LIMIT, 5000); // Listen thread only
+    private volatile boolean listingTruncated; // So the warning is logged when it starts, not every heartbeat
 
-    public Peer(int nodeId) throws SocketException {
-        this.socket = new DatagramSocket(PORT);
+    // Gossip mode only
+    private Gossip gossip;
+    private Selector sendSelector; // OP_WRITE on the channel, which Gossip made non-blocking
+    private final ConcurrentHashMap<Integer, InetSocketAddress> members = new ConcurrentHashMap<>(); // Live, per peer
+    private final BlockingQueue<InetSocketAddress> listingRequests = new LinkedBlockingQueue<>();
+
+    // Reused for every send/receive so the heartbeat path does not allocate per packet
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    public Peer(int nodeId, InetSocketAddress bindAddress) throws IOException {
+        this(nodeId, bindAddress, false);
+    }
+
+    // adaptive = use the phi-accrual detector instead of the fixed 30s timeout
+    public Peer(int nodeId, InetSocketAddress bindAddress, boolean adaptive) throws IOException {
+        this(nodeId, bindAddress, adaptive, null, 0, LISTING_RECEIVE_BUFFER);
+    }
+
+    // Shares homeDirectory: its listing is advertised to the other peers, the files are served on fileServerPort;
+    // receiveBuffer is the SO_RCVBUF to request, 0 = the OS default
+    public Peer(int nodeId, InetSocketAddress bindAddress, boolean adaptive, Path homeDirectory,
+                int fileServerPort, int receiveBuffer) throws IOException {
+        this.channel = DatagramChannel.open();
+        if (receiveBuffer > 0) {
+            this.channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBuffer);
+        }
+        this.channel.bind(bindAddress);
         this.nodeId = nodeId;
         this.activePeers = new ConcurrentHashMap<>();
+        this.expiryWheel = new ExpiryWheel(CHECK_TICK, TIMEOUT, System.currentTimeMillis());
+        if (adaptive) {
+            this.phiDetector = new PhiAccrualDetector(100, 8.0, 500, 3000, TIMEOUT);
+        }
+        this.homeDirectory = homeDirectory;
+        this.fileServerPort = fileServerPort;
     }
 
-    // Sends an "I am alive" message to all known peers
-    public void sendHeartbeat(List<String> peerIPs) throws IOException {
+    // The peer described by self in a config file, bound to its own address and port
+    public Peer(Node self, boolean adaptive, int receiveBuffer) throws IOException {
+        this(self.getNodeId(), new InetSocketAddress(self.getIpAddress(), self.getPort()), adaptive,
+                self.getHomeDirectory() != null ? Paths.get(self.getHomeDirectory()) : null, self.getFileServerPort(),
+                receiveBuffer);
+    }
+
+    // Room for a whole listing burst only if some peer has a listing to send; the rest is a few hundred bytes
+    static int receiveBufferFor(List<Node> nodes) {
+        for (Node node : nodes) {
+            if (node.getHomeDirectory() != null) {
+                return LISTING_RECEIVE_BUFFER;
+            }
+        }
+        return 0;
+    }
+
+    // Heartbeat destinations: every configured node except self, each at its own address and port
+    public static List<InetSocketAddress> peersOf(List<Node> nodes, int selfId) {
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (Node node : nodes) {
+            if (node.getNodeId() != selfId) {
+                peers.add(new InetSocketAddress(node.getIpAddress(), node.getPort()));
+            }
+        }
+        return peers;
+    }
+
+    // Sends an "I am alive" message to all known peers (fixed and phi modes)
+    public void sendHeartbeat(List<InetSocketAddress> peers) throws IOException {
         long currentTime = System.currentTimeMillis();
-        Protocol msg = new Protocol(1, mode, nodeId, currentTime, 0, "Alive-Peer");
-        byte[] data = msg.serialize();
+        Protocol msg = new Protocol(1, mode, nodeId, currentTime, 0, heartbeatPayload());
+        fanOut(msg, peers);
+        LOG.debug("Sent heartbeat to " + peers.size() + " peers");
+    }
 
-        for (String peerIP : peerIPs) {
-            DatagramPacket packet = new DatagramPacket(data, data.length, InetAddress.getByName(peerIP), PORT);
-            socket.send(packet);
-            System.out.println("Sent heartbeat to " + peerIP);
+    // Sends heartbeats at random intervals (0-30s) until interrupted
+    public void heartbeatLoop(List<InetSocketAddress> peers) {
+        try {
+            while (true) {
+                sendHeartbeat(peers);
+                Thread.sleep((long) (Math.random() * 30000)); // Sleep between 0-30 sec
+            }
+        } catch (IOException e) {
+            LOG.error("Peer " + nodeId + " stopped sending heartbeats", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    // Listens for incoming messages from other peers
-    public void listen() throws IOException {
-        byte[] buffer = new byte[1024];
-        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+    // Encodes msg once and writes the same bytes to every peer, fragmented if it exceeds the MTU
+    private void fanOut(Protocol msg, List<InetSocketAddress> peers) throws IOException {
+        if (msg.getTotalSize() > MTU) {
+            List<ByteBuffer> fragments = Fragmenter.split(msg.serialize(), MTU);
+            for (InetSocketAddress peer : peers) {
+                for (ByteBuffer fragment : fragments) {
+                    fragment.rewind();
+                    send(fragment, peer);
+                }
+            }
+            return;
+        }
+        synchronized (sendBuffer) {
+            sendBuffer.clear();
+            msg.encode(sendBuffer);
+            sendBuffer.flip();
+            for (int i = 0; i < peers.size(); i++) {
+                sendBuffer.rewind();
+                send(sendBuffer, peers.get(i));
+            }
+        }
+    }
 
+    /**
+     * Sends one datagram. In gossip mode the channel is non-blocking, so when the
+     * socket buffer is full (a burst of listing fragments) wait for OP_WRITE and
+     * retry, for at most SEND_WAIT_NANOS; a datagram still not sent is counted in
+     * send_drops.
+     */
+    private void send(ByteBuffer datagram, InetSocketAddress target) throws IOException {
+        int bytes = channel.send(datagram, target);
+        if (bytes == 0 && sendSelector != null) {
+            synchronized (sendSelector) {
+                long deadline = System.nanoTime() + SEND_WAIT_NANOS;
+                while ((bytes = channel.send(datagram, target)) == 0) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        SEND_DROPS.increment();
+                        LOG.warn("Socket buffer full, dropped a datagram to " + target);
+                        return;
+                    }
+                    sendSelector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+                    sendSelector.selectedKeys().clear();
+                }
+            }
+        }
+        PACKETS_OUT.increment();
+        BYTES_OUT.add(bytes);
+    }
+
+    /**
+     * "Alive-Peer", then "@files <port>" and the comma-separated listing if we share files.
+     * A listing longer than LISTING_LIMIT is cut at a name boundary and preceded by an
+     * "@truncated <omitted>" line, so receivers know it is partial.
+     */
+    private String heartbeatPayload() {
+        if (homeDirectory == null) {
+            return "Alive-Peer";
+        }
+        StringBuilder listing = new StringBuilder();
+        int bytes = 0, omitted = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(homeDirectory, Files::isRegularFile)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                int length = utf8Length(name) + 1;
+                if (omitted > 0 || bytes + length > LISTING_LIMIT) {
+                    omitted++; // Keep counting, for the marker
+                    continue;
+                }
+                listing.append(name).append(',');
+                bytes += length;
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not list " + homeDirectory, e);
+        }
+
+        StringBuilder payload = new StringBuilder("Alive-Peer\n@files ").append(fileServerPort).append('\n');
+        if (omitted > 0) {
+            TRUNCATED.increment();
+            payload.append("@truncated ").append(omitted).append('\n');
+            if (!listingTruncated) {
+                LOG.warn("Listing of " + homeDirectory + " exceeds " + LISTING_LIMIT + " bytes, " + omitted
+                        + " files are not advertised");
+            }
+        }
+        listingTruncated = omitted > 0;
+        return payload.append(listing).toString();
+    }
+
+    private static int utf8Length(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            length += c < 0x80 ? 1 : c < 0x800 ? 2 : Character.isSurrogate(c) ? 2 : 3; // A pair is 4 bytes
+        }
+        return length;
+    }
+
+    // Remembers where a peer serves files and what it advertised (possibly only part of its files)
+    private void recordListing(int peerId, SocketAddress source, String payload) {
+        int start = payload.indexOf("\n@files ");
+        if (start < 0 || !(source instanceof InetSocketAddress)) {
+            return;
+        }
+        int end = payload.indexOf('\n', start + 1);
+        int port;
+        try {
+            port = Integer.parseInt(payload.substring(start + 8, end < 0 ? payload.length() : end).trim());
+        } catch (NumberFormatException e) {
+            DECODE_FAILURES.increment();
+            LOG.warn("Malformed listing from " + source + ": " + e.getMessage());
+            return;
+        }
+        if (end >= 0 && payload.startsWith("@truncated ", end + 1)) {
+            end = payload.indexOf('\n', end + 1);
+        }
+        Set<String> files = new HashSet<>();
+        if (end >= 0) {
+            for (String name : payload.substring(end + 1).split(",")) {
+                if (!name.isEmpty()) {
+                    files.add(name);
+                }
+            }
+        }
+        fileServers.put(peerId, new InetSocketAddress(((InetSocketAddress) source).getAddress(), port));
+        peerFiles.put(peerId, files);
+    }
+
+    // File servers of the live peers whose latest listing has name
+    public List<InetSocketAddress> findSeeders(String name) {
+        List<InetSocketAddress> seeders = new ArrayList<>();
+        for (Map.Entry<Integer, Set<String>> entry : peerFiles.entrySet()) {
+            InetSocketAddress address = fileServers.get(entry.getKey());
+            if (address != null && entry.getValue().contains(name)) {
+                seeders.add(address);
+            }
+        }
+        return seeders;
+    }
+
+    // Fetches name from every peer advertising it into our home directory
+    public long swarmDownload(String name, int connectionsPerPeer) throws IOException, InterruptedException {
+        if (homeDirectory == null) {
+            throw new IOException("No home directory to download into");
+        }
+        return new SwarmDownloader(connectionsPerPeer).download(name, findSeeders(name), homeDirectory.resolve(name));
+    }
+
+    // Counts a datagram and returns the message it completes; null while fragments are missing or if it is malformed
+    private Protocol receive(SocketAddress source, ByteBuffer datagram, long now) {
+        PACKETS_IN.increment();
+        BYTES_IN.add(datagram.remaining());
+        try {
+            ByteBuffer complete = reassembler.accept(source, datagram, now);
+            return complete != null ? Protocol.decode(complete) : null;
+        } catch (ProtocolException e) {
+            DECODE_FAILURES.increment(); // Malformed datagram, skip it
+            LOG.warn("Malformed datagram from " + source + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Listens for heartbeats from other peers (fixed and phi modes)
+    public void listen() throws IOException {
         while (true) {
-            socket.receive(packet);
-            try {
-                Protocol msg = Protocol.deserialize(packet.getData());
+            receiveBuffer.clear();
+            SocketAddress source = channel.receive(receiveBuffer);
+            receiveBuffer.flip();
+            long now = System.currentTimeMillis();
+            Protocol msg = receive(source, receiveBuffer, now);
+            if (msg == null) {
+                continue;
+            }
 
-                // Update peer status
-                activePeers.put(msg.getNodeId(), System.currentTimeMillis());
-                System.out.println("Received from Node " + msg.getNodeId() + ": " + msg.getPayload());
+            // Update peer status
+            activePeers.put(msg.getNodeId(), now);
+            expiryWheel.touch(msg.getNodeId(),
+                    phiDetector != null ? phiDetector.heartbeat(msg.getNodeId(), now) : now + TIMEOUT);
+            recordListing(msg.getNodeId(), source, msg.getPayload());
+            if (LOG.isEnabled(Log.Level.DEBUG)) {
+                LOG.debug("Received from Node " + msg.getNodeId() + ": " + msg.getPayload());
+            }
+        }
+    }
 
-            } catch (ClassNotFoundException e) {
-                e.printStackTrace(); // Handle the error appropriately
-            } catch (IOException e) {
-                e.printStackTrace(); // Handle I/O exceptions
+    // Gossip mode: a member came up; ask for its listing, it answers if it shares files
+    private void memberUp(int peerId, InetSocketAddress address) {
+        members.put(peerId, address);
+        activePeers.put(peerId, System.currentTimeMillis());
+        try {
+            fanOut(new Protocol(1, mode, nodeId, System.currentTimeMillis(), LISTING_REQUEST, ""),
+                    Collections.singletonList(address));
+        } catch (IOException e) {
+            LOG.warn("Could not ask peer " + peerId + " for its listing", e);
+        }
+    }
+
+    // Gossip mode: a member was declared DEAD
+    private void memberDown(int peerId) {
+        LOG.info("Peer " + peerId + " is inactive!");
+        EVICTIONS.increment();
+        members.remove(peerId);
+        activePeers.remove(peerId);
+        fileServers.remove(peerId);
+        peerFiles.remove(peerId);
+    }
+
+    // Gossip mode: listings and listing requests, on the Gossip thread
+    private void receiveListing(ByteBuffer datagram, InetSocketAddress source) {
+        Protocol msg = receive(source, datagram, System.currentTimeMillis());
+        if (msg == null) {
+            return;
+        }
+        if (msg.getReserve() == LISTING_REQUEST) {
+            if (homeDirectory != null) {
+                listingRequests.offer(source);
+            }
+        } else if (gossip.isAlive(msg.getNodeId())) {
+            // Not from a member Gossip has declared DEAD: memberDown would never remove it;
+            // if the member comes back, memberUp asks for the listing again
+            recordListing(msg.getNodeId(), source, msg.getPayload());
+            if (LOG.isEnabled(Log.Level.DEBUG)) {
+                LOG.debug("Listing from Node " + msg.getNodeId() + ": " + msg.getPayload().length() + " chars");
+            }
+        }
+    }
+
+    // Gossip mode, sharing peers: answers listing requests and sends a changed listing to every member
+    private void listingLoop() {
+        String listing = heartbeatPayload();
+        long rescanAt = System.currentTimeMillis() + LISTING_RESCAN;
+        try {
+            while (true) {
+                InetSocketAddress requester = listingRequests.poll(LISTING_RESCAN, TimeUnit.MILLISECONDS);
+                if (requester != null) {
+                    fanOut(new Protocol(1, mode, nodeId, System.currentTimeMillis(), LISTING, listing),
+                            Collections.singletonList(requester));
+                }
+                long now = System.currentTimeMillis();
+                if (now >= rescanAt) {
+                    rescanAt = now + LISTING_RESCAN;
+                    String current = heartbeatPayload();
+                    if (!current.equals(listing)) {
+                        listing = current;
+                        List<InetSocketAddress> targets = new ArrayList<>(members.values());
+                        fanOut(new Protocol(1, mode, nodeId, now, LISTING, listing), targets);
+                        LOG.debug("Sent changed listing to " + targets.size() + " peers");
+                    }
+                }
             }
+        } catch (IOException e) {
+            LOG.error("Peer " + nodeId + " stopped sending its listing", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    // Checks if peers are still active every 30 seconds
+    // Reports peers whose deadline passed, visiting only those peers (not the whole map); fixed and phi modes
     public void checkPeerStatus() {
         while (true) {
-            long currentTime = System.currentTimeMillis();
-            activePeers.forEach((peerId, lastSeen) -> {
-                if (currentTime - lastSeen > TIMEOUT) {
-                    System.out.println("Peer " + peerId + " is inactive!");
-                    activePeers.remove(peerId);
+            for (int peerId : expiryWheel.advance(System.currentTimeMillis())) {
+                LOG.info("Peer " + peerId + " is inactive!");
+                EVICTIONS.increment();
+                activePeers.remove(peerId);
+                fileServers.remove(peerId);
+                peerFiles.remove(peerId);
+                if (phiDetector != null) {
+                    phiDetector.remove(peerId);
                 }
-            });
+            }
 
             try {
-                Thread.sleep(5000); // Check every 5 seconds
+                Thread.sleep(CHECK_TICK); // Check once per tick
             } catch (InterruptedException e) {
-                e.printStackTrace();
+                LOG.warn("Failure detector of peer " + nodeId + " interrupted", e);
             }
         }
     }
 
-    public static void main(String[] args) throws IOException, InterruptedException {
-        Peer peer = new Peer(1); // Assign node ID
+    // Console commands: "get <file>"
+    private void readCommands(BufferedReader console) {
+        try {
+            String line;
+            while ((line = console.readLine()) != null) {
+                if (!line.startsWith("get ")) {
+                    continue;
+                }
+                String name = line.substring(4).trim();
+                try {
+                    long start = System.nanoTime();
+                    long size = swarmDownload(name, 2);
+                    System.out.printf("Downloaded %s (%d bytes) from %d peers in %.2f s%n",
+                            name, size, findSeeders(name).size(), (System.nanoTime() - start) / 1e9);
+                } catch (IOException e) {
+                    System.out.println("Download of " + name + " failed: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("Console closed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-        List<String> peerIPs = Arrays.asList("127.0.0.1"); // List of known peers (replace with real IPs)
+    /**
+     * Starts the peer's threads and the file server if it shares files. With gossip,
+     * one Gossip thread handles membership and incoming listings, and a sharing peer
+     * adds a listing thread; peers are only contacted once, to join. Otherwise a
+     * listener, a failure detector and all-to-all heartbeats.
+     */
+    private void start(List<InetSocketAddress> peers, boolean useGossip) throws IOException {
+        RUNNING.add(this);
+        if (homeDirectory != null && fileServerPort > 0) {
+            FileServer fileServer = new FileServer(homeDirectory);
+            fileServer.createSocket(fileServerPort);
+            new Thread(fileServer::serve, "files-" + nodeId).start();
+        }
+        if (useGossip) {
+            gossip = new Gossip(nodeId, channel, (InetSocketAddress) channel.getLocalAddress(), GOSSIP_PERIOD,
+                    INDIRECT_PROBES, SUSPICION_TIMEOUT);
+            sendSelector = Selector.open();
+            channel.register(sendSelector, SelectionKey.OP_WRITE);
+            gossip.setListener(new Gossip.Listener() {
+                @Override
+                public void memberUp(int id, InetSocketAddress address) {
+                    Peer.this.memberUp(id, address);
+                }
 
-        // Start listening in a separate thread
+                @Override
+                public void memberDown(int id) {
+                    Peer.this.memberDown(id);
+                }
+            });
+            gossip.setReceiver(this::receiveListing);
+            new Thread(() -> {
+                try {
+                    gossip.join(peers);
+                    gossip.run();
+                } catch (IOException e) {
+                    LOG.error("Peer " + nodeId + " stopped gossiping", e);
+                }
+            }, "gossip-" + nodeId).start();
+            if (homeDirectory != null) {
+                new Thread(this::listingLoop, "listing-" + nodeId).start();
+            }
+            return;
+        }
         new Thread(() -> {
             try {
-                peer.listen();
+                listen();
             } catch (IOException e) {
-                e.printStackTrace();
+                LOG.error("Peer " + nodeId + " stopped listening", e);
+            }
+        }, "listen-" + nodeId).start();
+        new Thread(this::checkPeerStatus, "check-" + nodeId).start();
+        new Thread(() -> heartbeatLoop(peers), "heartbeat-" + nodeId).start();
+    }
+
+    private static void startMetrics(int port) throws IOException {
+        METRICS.gauge("peers_active", () -> {
+            long active = 0;
+            for (Peer peer : RUNNING) {
+                active += peer.activePeers.size();
             }
-        }).start();
+            return active;
+        });
+        METRICS.gauge("gossip_messages_out", () -> {
+            long sent = 0;
+            for (Peer peer : RUNNING) {
+                sent += peer.gossip != null ? peer.gossip.getMessagesSent() : 0;
+            }
+            return sent;
+        });
+        METRICS.gauge("gossip_bytes_out", () -> {
+            long sent = 0;
+            for (Peer peer : RUNNING) {
+                sent += peer.gossip != null ? peer.gossip.getBytesSent() : 0;
+            }
+            return sent;
+        });
+        METRICS.gauge("log_dropped", Log::getDropped);
+        if (port > 0) {
+            LOG.info("Metrics at http://127.0.0.1:" + METRICS.serve(port) + "/metrics");
+        }
+        try {
+            METRICS.registerMBean();
+        } catch (JMException e) {
+            LOG.warn("Could not register metrics MBean", e);
+        }
+    }
 
-        // Start monitoring peer activity
-        new Thread(peer::checkPeerStatus).start();
+    /**
+     * Usage: Peer configFile nodeId|first-last|all [gossip|fixed|phi] [metricsPort]
+     *   nodeId:      run that node of the config; if it shares files, type "get <file>" to swarm-download
+     *   first-last:  run the nodes with ids in that range in this process
+     *   all:         run every node of the config in this process
+     *   gossip:      SWIM membership and failure detection (default)
+     *   fixed, phi:  all-to-all heartbeats, with a fixed 30s timeout or the phi-accrual detector
+     *   metricsPort: serve the process's peer metrics at http://127.0.0.1:metricsPort/metrics
+     * -Dpeer.receive_buffer=bytes sets each peer's SO_RCVBUF (0 = OS default). The default is 4 MB,
+     * enough for a fragmented listing, when some node of the config shares files, else the OS default.
+     * Per-packet lines are logged at DEBUG (-Dlog.level=DEBUG to see them); failures at INFO.
+     * e.g. 500 peers on one host, split over two processes:
+     *   for i in $(seq 1 500); do echo "$i,127.0.0.1,$((5000+i)),-"; done > peers.csv
+     *   java PeerToPeer.Peer peers.csv 1-250 & java PeerToPeer.Peer peers.csv 251-500
+     */
+    public static void main(String[] args) throws IOException {
+        String configFile = args.length > 0 ? args[0] : "PeerToPeer/peer_config.properties";
+        String which = args.length > 1 ? args[1] : "1";
+        String detector = args.length > 2 ? args[2] : "gossip";
+        if (!detector.equals("gossip") && !detector.equals("fixed") && !detector.equals("phi")) {
+            throw new IllegalArgumentException("Unknown mode " + detector + ", expected gossip, fixed or phi");
+        }
+        boolean useGossip = detector.equals("gossip");
+        boolean adaptive = detector.equals("phi"); // "phi" = adaptive detector
+        int metricsPort = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        List<Node> nodes = ConfigReaderP2P.readConfig(configFile);
+        int receiveBuffer = Integer.getInteger("peer.receive_buffer", receiveBufferFor(nodes));
+        startMetrics(metricsPort);
 
-        // Send heartbeats at random intervals (0-30s)
-        while (true) {
-            peer.sendHeartbeat(peerIPs);
-            Thread.sleep((long) (Math.random() * 30000)); // Sleep between 0-30 sec
+        int dash = which.indexOf('-');
+        if (which.equals("all") || dash > 0) {
+            int first = dash > 0 ? Integer.parseInt(which.substring(0, dash)) : Integer.MIN_VALUE;
+            int last = dash > 0 ? Integer.parseInt(which.substring(dash + 1)) : Integer.MAX_VALUE;
+            int started = 0;
+            for (Node node : nodes) {
+                if (node.getNodeId() >= first && node.getNodeId() <= last) {
+                    Peer peer = new Peer(node, adaptive, receiveBuffer);
+                    peer.start(peersOf(nodes, node.getNodeId()), useGossip);
+                    started++;
+                }
+            }
+            LOG.info("Started " + started + " of " + nodes.size() + " peers from " + configFile);
+            return;
+        }
+
+        int nodeId = Integer.parseInt(which);
+        Node self = null;
+        for (Node node : nodes) {
+            if (node.getNodeId() == nodeId) {
+                self = node;
+            }
+        }
+        if (self == null) {
+            throw new IllegalArgumentException("Node " + nodeId + " is not in " + configFile);
+        }
+        Peer peer = new Peer(self, adaptive, receiveBuffer);
+        peer.start(peersOf(nodes, nodeId), useGossip);
+        if (peer.homeDirectory != null) {
+            new Thread(() -> peer.readCommands(new BufferedReader(new InputStreamReader(System.in)))).start();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,64 @@
+package PeerToPeer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import networking.FileServer;
+
+/**
+ * Swarm download throughput against the number of seeders, on loopback.
+ *
+ * Every seeder is a FileServer over the same directory with its upload capped
+ * per client (like a real peer's uplink), so a single-seeder download is
+ * bandwidth-bound and the aggregate speed should grow with the seeder count.
+ *
+ * Usage: java PeerToPeer.SwarmBenchmark [sizeMB] [seeders] [uploadMBps] [connectionsPerPeer]
+ *   e.g. java PeerToPeer.SwarmBenchmark 200 1,2,4,8 20 2
+ */
+public class SwarmBenchmark {
+    public static void main(String[] args) throws Exception {
+        long size = (args.length > 0 ? Long.parseLong(args[0]) : 200) * 1024 * 1024;
+        String[] seederCounts = (args.length > 1 ? args[1] : "1,2,4,8").split(",");
+        long upload = (args.length > 2 ? Long.parseLong(args[2]) : 20) * 1024 * 1024;
+        int connections = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+
+        Path shared = Files.createTempDirectory("swarm-seed");
+        Path file = shared.resolve("swarm.bin");
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            for (long written = 0; written < size; written += block.length) {
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+        Path target = Files.createTempDirectory("swarm-leech").resolve("swarm.bin");
+
+        System.out.printf("%8s %12s %12s%n", "seeders", "MB/s", "seconds");
+        for (String count : seederCounts) {
+            int seeders = Integer.parseInt(count.trim());
+            List<FileServer> servers = new ArrayList<>();
+            List<InetSocketAddress> peers = new ArrayList<>();
+            for (int i = 0; i < seeders; i++) {
+                FileServer server = new FileServer(shared, 64, upload);
+                server.createSocket(0);
+                new Thread(server::serve).start();
+                servers.add(server);
+                peers.add(new InetSocketAddress("localhost", server.getPort()));
+            }
+            try {
+                long start = System.nanoTime();
+                long received = new SwarmDownloader(connections).download("swarm.bin", peers, target);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%8d %12.1f %12.2f%n", seeders, received / seconds / (1024 * 1024), seconds);
+            } finally {
+                for (FileServer server : servers) {
+                    server.close();
+                }
+            }
+        }
+        Files.deleteIfExists(target);
+        Files.deleteIfExists(file);
+    }
+}
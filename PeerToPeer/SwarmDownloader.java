@@ -0,0 +1,314 @@
+package PeerToPeer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import ClientServer.Log;
+import networking.FileClient;
+import networking.FileTransferProtocol;
+import networking.FileTransferProtocol.Manifest;
+
+/**
+ * Downloads one file from every peer that has it at the same time.
+ *
+ * Each peer's FileServer is asked for the chunk manifest of the file. The most
+ * common version (by whole-file SHA-256) is the one we download, and a peer
+ * counts as holding a chunk whenever its chunk hash matches, so peers with an
+ * older or partial copy still contribute what they have.
+ *
+ * Every peer gets connectionsPerPeer workers that pull chunks from a shared
+ * scheduler: rarest chunk first among those the peer holds, so chunks only one
+ * slow peer has are not left to the end. Faster peers come back for work more
+ * often, which makes the split least-loaded without measuring anything. Every
+ * chunk is checked against its manifest hash before it is written at its
+ * offset; a bad chunk is retried from another peer. An I/O failure (timeout,
+ * reset, busy server) only puts the chunk back: the worker backs off and the
+ * peer is dropped after MAX_PEER_FAILURES failures in a row.
+ */
+public class SwarmDownloader {
+    private static final Log LOG = Log.get("SwarmDownloader");
+    static final int MAX_PEER_FAILURES = 5; // I/O failures in a row before a peer is given up
+    static final long BACKOFF_MILLIS = 100; // Doubles with every failure in a row
+    static final long MAX_BACKOFF_MILLIS = 2000;
+    private static final int MANIFEST_ATTEMPTS = 3;
+
+    private final int connectionsPerPeer;
+
+    public SwarmDownloader(int connectionsPerPeer) {
+        this.connectionsPerPeer = connectionsPerPeer;
+    }
+
+    /**
+     * Downloads name from peers into target and returns the file size.
+     * Throws FileNotFoundException if no peer has the file.
+     */
+    public long download(String name, List<InetSocketAddress> peers, Path target) throws IOException, InterruptedException {
+        List<InetSocketAddress> holders = new ArrayList<>();
+        List<Manifest> manifests = fetchManifests(name, peers, holders);
+        if (manifests.isEmpty()) {
+            throw new FileNotFoundException(name + " is not available from any of " + peers.size() + " peers");
+        }
+        Manifest wanted = mostCommon(manifests);
+        Scheduler scheduler = new Scheduler(wanted, manifests);
+
+        Path part = Paths.get(target + ".part");
+        ExecutorService workers = Executors.newFixedThreadPool(holders.size() * connectionsPerPeer);
+        try (FileChannel fileOut = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<Future<?>> results = new ArrayList<>();
+            for (int peer = 0; peer < holders.size(); peer++) {
+                for (int i = 0; i < connectionsPerPeer; i++) {
+                    int p = peer;
+                    results.add(workers.submit(() -> {
+                        fetchChunks(name, holders.get(p), p, wanted, scheduler, fileOut);
+                        return null;
+                    }));
+                }
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+            if (!scheduler.isComplete()) {
+                throw new IOException("No peer could supply chunk " + scheduler.firstMissing() + " of " + name);
+            }
+            if (!Arrays.equals(wanted.digest, FileTransferProtocol.sha256(fileOut))) {
+                throw new IOException("SHA-256 mismatch for " + name + " after assembly");
+            }
+            fileOut.force(true);
+        } catch (ExecutionException e) {
+            throw new IOException("Swarm download of " + name + " failed", e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+        Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return wanted.fileSize;
+    }
+
+    // Manifests from every peer in parallel; holders gets the peers that answered, in the same order
+    private static List<Manifest> fetchManifests(String name, List<InetSocketAddress> peers,
+                                                 List<InetSocketAddress> holders) throws InterruptedException {
+        ExecutorService lookups = Executors.newFixedThreadPool(Math.max(1, Math.min(peers.size(), 32)));
+        try {
+            List<Future<Manifest>> answers = new ArrayList<>();
+            for (InetSocketAddress peer : peers) {
+                answers.add(lookups.submit(() -> fetchManifest(peer, name)));
+            }
+            List<Manifest> manifests = new ArrayList<>();
+            for (int i = 0; i < peers.size(); i++) {
+                try {
+                    Manifest manifest = answers.get(i).get();
+                    if (manifest != null) {
+                        manifests.add(manifest);
+                        holders.add(peers.get(i));
+                    }
+                } catch (ExecutionException e) {
+                    LOG.warn("No manifest from " + peers.get(i) + ": " + e.getCause().getMessage());
+                }
+            }
+            return manifests;
+        } finally {
+            lookups.shutdownNow();
+        }
+    }
+
+    // Retried with backoff, so one refused or reset connection does not cost us the peer
+    private static Manifest fetchManifest(InetSocketAddress peer, String name) throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return FileClient.fetchManifest(peer, name);
+            } catch (IOException e) {
+                if (attempt == MANIFEST_ATTEMPTS) {
+                    throw e;
+                }
+                Thread.sleep(BACKOFF_MILLIS << (attempt - 1));
+            }
+        }
+    }
+
+    private static Manifest mostCommon(List<Manifest> manifests) {
+        Map<String, Integer> votes = new HashMap<>();
+        Manifest best = manifests.get(0);
+        int bestVotes = 0;
+        for (Manifest manifest : manifests) {
+            int count = votes.merge(Base64.getEncoder().encodeToString(manifest.digest), 1, Integer::sum);
+            if (count > bestVotes) {
+                best = manifest;
+                bestVotes = count;
+            }
+        }
+        return best;
+    }
+
+    // One worker: keep taking chunks this peer has until there are none left for it
+    private static void fetchChunks(String name, InetSocketAddress address, int peer, Manifest wanted,
+                                    Scheduler scheduler, FileChannel fileOut) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(wanted.chunkSize);
+        MessageDigest digest = FileTransferProtocol.newDigest();
+        int chunk;
+        while ((chunk = scheduler.next(peer)) >= 0) {
+            try {
+                data.clear();
+                FileClient.fetchRange(address, name, wanted.chunkOffset(chunk), wanted.chunkLength(chunk), data);
+            } catch (IOException e) {
+                long backoff = scheduler.unreachable(chunk, peer);
+                if (backoff < 0) {
+                    LOG.warn("Giving up on " + address + " after " + MAX_PEER_FAILURES + " failures in a row: "
+                            + e.getMessage());
+                    return;
+                }
+                LOG.warn("Chunk " + chunk + " from " + address + " failed, retrying in " + backoff + " ms: "
+                        + e.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                continue;
+            }
+            data.flip();
+            digest.update(data.duplicate());
+            if (!Arrays.equals(wanted.chunkHashes[chunk], digest.digest())) {
+                LOG.warn("Chunk " + chunk + " from " + address + " does not match its hash, not asking it again");
+                scheduler.corrupt(chunk, peer);
+                continue;
+            }
+            try {
+                long position = wanted.chunkOffset(chunk);
+                while (data.hasRemaining()) {
+                    position += fileOut.write(data, position);
+                }
+            } catch (IOException e) {
+                scheduler.abort(); // Local disk trouble, no other peer can fix that
+                throw e;
+            }
+            scheduler.done(chunk, peer);
+        }
+    }
+
+    /**
+     * Which peer may fetch which chunk. Guarded by its own lock; the scans are
+     * linear in the chunk count, which is small next to the transfer itself.
+     */
+    static final class Scheduler {
+        private final int chunkCount;
+        private final BitSet[] holdings; // Per peer: chunks whose hash matches the wanted version
+        private final int[] availability; // Per chunk: number of peers still holding it
+        private final int[] failures; // Per peer: I/O failures since its last good chunk
+        private final BitSet done = new BitSet();
+        private final BitSet inFlight = new BitSet();
+        private boolean aborted;
+
+        Scheduler(Manifest wanted, List<Manifest> manifests) {
+            chunkCount = wanted.chunkCount();
+            holdings = new BitSet[manifests.size()];
+            availability = new int[chunkCount];
+            failures = new int[manifests.size()];
+            for (int peer = 0; peer < manifests.size(); peer++) {
+                holdings[peer] = new BitSet(chunkCount);
+                for (int chunk = 0; chunk < chunkCount; chunk++) {
+                    if (wanted.sameChunk(manifests.get(peer), chunk)) {
+                        holdings[peer].set(chunk);
+                        availability[chunk]++;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Rarest chunk this peer holds that is neither done nor being fetched.
+         * Waits while the only chunks left for this peer are in flight elsewhere,
+         * since those come back here if that fetch fails. -1 = nothing left for this peer.
+         */
+        synchronized int next(int peer) {
+            BitSet held = holdings[peer];
+            while (!aborted) {
+                int best = -1;
+                boolean pending = false;
+                for (int chunk = held.nextSetBit(0); chunk >= 0; chunk = held.nextSetBit(chunk + 1)) {
+                    if (done.get(chunk)) {
+                        continue;
+                    }
+                    pending = true;
+                    if (!inFlight.get(chunk) && (best < 0 || availability[chunk] < availability[best])) {
+                        best = chunk;
+                    }
+                }
+                if (best >= 0) {
+                    inFlight.set(best);
+                    return best;
+                }
+                if (!pending) {
+                    return -1;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                }
+            }
+            return -1;
+        }
+
+        synchronized void abort() {
+            aborted = true;
+            notifyAll();
+        }
+
+        synchronized void done(int chunk, int peer) {
+            inFlight.clear(chunk);
+            done.set(chunk);
+            failures[peer] = 0;
+            notifyAll();
+        }
+
+        // This peer served a chunk that does not match the wanted hash: never ask it for this chunk again
+        synchronized void corrupt(int chunk, int peer) {
+            inFlight.clear(chunk);
+            if (holdings[peer].get(chunk)) {
+                holdings[peer].clear(chunk);
+                availability[chunk]--;
+            }
+            notifyAll();
+        }
+
+        /**
+         * Fetching the chunk from this peer failed with an I/O error; the chunk is
+         * up for grabs again. Returns how long the worker should back off, or -1
+         * once the peer has failed MAX_PEER_FAILURES times in a row: then it is
+         * dropped and holds nothing any more.
+         */
+        synchronized long unreachable(int chunk, int peer) {
+            inFlight.clear(chunk);
+            notifyAll();
+            int failed = ++failures[peer];
+            if (failed >= MAX_PEER_FAILURES) {
+                BitSet held = holdings[peer];
+                for (int c = held.nextSetBit(0); c >= 0; c = held.nextSetBit(c + 1)) {
+                    availability[c]--;
+                }
+                held.clear();
+                return -1;
+            }
+            return Math.min(MAX_BACKOFF_MILLIS, BACKOFF_MILLIS << (failed - 1));
+        }
+
+        synchronized boolean isComplete() {
+            return done.cardinality() == chunkCount;
+        }
+
+        synchronized int firstMissing() {
+            return done.nextClearBit(0);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package ClientServer;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Simulated clients for the benchmarks: client i is 10.x.y.z (distinct for the
+ * first 16M clients) and shares FILES files in the FileIndex entry format.
+ */
+final class BenchmarkData {
+    static final int FILES = 4;
+    static final int CLIENT_PORT = 6000;
+    static final long EPOCH = 1_700_000_000_000L; // Fixed timestamps keep runs comparable
+
+    private BenchmarkData() {
+    }
+
+    static String address(int client) {
+        return "10." + ((client >>> 16) & 0xFF) + "." + ((client >>> 8) & 0xFF) + "." + (client & 0xFF);
+    }
+
+    static InetSocketAddress source(int client) {
+        try {
+            byte[] ip = {10, (byte) (client >>> 16), (byte) (client >>> 8), (byte) client};
+            return new InetSocketAddress(InetAddress.getByAddress(ip), CLIENT_PORT);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e); // Cannot happen for a 4-byte address
+        }
+    }
+
+    // Full comma-separated listing: "name|size|mtime|sha256" per file
+    static String listing(int client) {
+        StringBuilder listing = new StringBuilder();
+        for (int f = 0; f < FILES; f++) {
+            listing.append("file-").append(client).append('-').append(f).append(".dat|")
+                    .append(1024 * (f + 1)).append('|').append(EPOCH + client).append('|');
+            for (int i = 0; i < 8; i++) {
+                listing.append(String.format("%08x", (client * 31 + f) * (i + 7)));
+            }
+            listing.append(',');
+        }
+        return listing.toString();
+    }
+
+    // First heartbeat of a client: its full listing at version 1
+    static String joinPayload(int client) {
+        return HeartbeatPayload.LIST + " 1\n" + listing(client);
+    }
+
+    // Steady-state heartbeat: an RTT echo, the server epoch its version belongs to and an empty listing delta
+    static String steadyPayload(int availabilityEpoch) {
+        return HeartbeatPayload.ECHO + " " + EPOCH + " 40\n" + HeartbeatPayload.EPOCH + " " + availabilityEpoch + "\n"
+                + HeartbeatPayload.LIST + " 1 1\n";
+    }
+}
@@ -0,0 +1,68 @@
+package ClientServer;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Encode and decode of client heartbeats carrying a full listing, cycling
+ * through one message per simulated client so larger client counts also show
+ * the cost of a working set that no longer fits in cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+    @Param({"10", "1000", "100000"})
+    int clients;
+
+    private String[] nodeIds;
+    private String[] payloads;
+    private byte[][] datagrams;
+    private ByteBuffer receiveBuffer;
+    private int next;
+
+    @Setup
+    public void setup() {
+        nodeIds = new String[clients];
+        payloads = new String[clients];
+        datagrams = new byte[clients][];
+        for (int i = 0; i < clients; i++) {
+            nodeIds[i] = BenchmarkData.address(i);
+            payloads[i] = BenchmarkData.joinPayload(i);
+            datagrams[i] = new Protocol(1, false, nodeIds[i], BenchmarkData.EPOCH, 0, payloads[i]).serialize();
+        }
+        receiveBuffer = ByteBuffer.allocateDirect(64 * 1024); // Like ReceiveLoop's buffer
+    }
+
+    private int nextClient() {
+        int client = next;
+        next = client + 1 == clients ? 0 : client + 1;
+        return client;
+    }
+
+    // What a client does per heartbeat: build the message and turn it into a datagram
+    @Benchmark
+    public byte[] serialize() {
+        int client = nextClient();
+        return new Protocol(1, false, nodeIds[client], BenchmarkData.EPOCH, 0, payloads[client]).serialize();
+    }
+
+    @Benchmark
+    public Protocol deserialize() throws IOException {
+        return Protocol.deserialize(datagrams[nextClient()]);
+    }
+
+    // The server's receive path: decode straight out of the direct receive buffer
+    @Benchmark
+    public Protocol decode() throws ProtocolException {
+        receiveBuffer.clear();
+        receiveBuffer.put(datagrams[nextClient()]).flip();
+        return Protocol.decode(receiveBuffer);
+    }
+}
@@ -0,0 +1,78 @@
+package ClientServer;
+
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The server's per-heartbeat work and the broadcast build, against a server
+ * that already knows every simulated client.
+ *
+ * heartbeat: decode a steady-state heartbeat and apply it (client table and
+ * address update, listing version check, arrival/RTT record, expiry deadline).
+ *
+ * broadcast: everything Server.broadcastUpdates does before sending: collect
+ * every client's address and acknowledged version, then build and fragment one
+ * update per distinct version. Clients are spread over the latest eight
+ * versions, and one in a hundred has acknowledged nothing and needs a snapshot.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ServerBenchmark {
+    private static final int MTU = 1200;
+    private static final int LAGGING_VERSIONS = 8;
+
+    @Param({"10", "1000", "100000"})
+    int clients;
+
+    private Server server;
+    private InetSocketAddress[] sources;
+    private byte[][] heartbeats;
+    private int next;
+
+    @Setup
+    public void setup() throws ProtocolException {
+        server = new Server(MTU, 1);
+        sources = new InetSocketAddress[clients];
+        for (int i = 0; i < clients; i++) {
+            sources[i] = BenchmarkData.source(i);
+            Protocol join = new Protocol(1, false, BenchmarkData.address(i), BenchmarkData.EPOCH, 0,
+                    BenchmarkData.joinPayload(i));
+            server.handleHeartbeat(new Heartbeat(join, sources[i], System.nanoTime(), System.currentTimeMillis()));
+        }
+
+        // Steady-state heartbeats, each carrying the availability version that client acknowledged
+        int version = server.getAvailabilityVersion();
+        heartbeats = new byte[clients][];
+        for (int i = 0; i < clients; i++) {
+            int acked = i % 100 == 99 ? 0 : Math.max(0, version - i % LAGGING_VERSIONS);
+            heartbeats[i] = new Protocol(1, false, BenchmarkData.address(i), BenchmarkData.EPOCH, acked,
+                    BenchmarkData.steadyPayload(server.getAvailabilityEpoch())).serialize();
+            server.handleHeartbeat(new Heartbeat(Protocol.decode(ByteBuffer.wrap(heartbeats[i])), sources[i],
+                    System.nanoTime(), System.currentTimeMillis()));
+        }
+    }
+
+    @Benchmark
+    public int heartbeat() throws ProtocolException {
+        int client = next;
+        next = client + 1 == clients ? 0 : client + 1;
+        Protocol message = Protocol.decode(ByteBuffer.wrap(heartbeats[client]));
+        return server.handleHeartbeat(new Heartbeat(message, sources[client], System.nanoTime(),
+                System.currentTimeMillis()));
+    }
+
+    @Benchmark
+    public Map<Integer, List<ByteBuffer>> broadcast() {
+        return server.buildUpdates(new ArrayList<>(), new ArrayList<>(), BenchmarkData.EPOCH);
+    }
+}
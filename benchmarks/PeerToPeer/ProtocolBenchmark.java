@@ -0,0 +1,79 @@
+package PeerToPeer;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Encode and decode of peer heartbeats that advertise a file listing, cycling
+ * through one message per simulated peer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+    private static final long EPOCH = 1_700_000_000_000L;
+    private static final int FILES = 4;
+
+    @Param({"10", "1000", "100000"})
+    int peers;
+
+    private String[] payloads;
+    private byte[][] datagrams;
+    private ByteBuffer buffer;
+    private int next;
+
+    @Setup
+    public void setup() {
+        payloads = new String[peers];
+        datagrams = new byte[peers][];
+        for (int i = 0; i < peers; i++) {
+            StringBuilder payload = new StringBuilder("Alive-Peer\n@files 7000\n");
+            for (int f = 0; f < FILES; f++) {
+                payload.append("file-").append(i).append('-').append(f).append(".dat,");
+            }
+            payloads[i] = payload.toString();
+            datagrams[i] = new Protocol(1, true, i, EPOCH, 0, payloads[i]).serialize();
+        }
+        buffer = ByteBuffer.allocateDirect(64 * 1024); // Like Peer's send/receive buffers
+    }
+
+    private int nextPeer() {
+        int peer = next;
+        next = peer + 1 == peers ? 0 : peer + 1;
+        return peer;
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        int peer = nextPeer();
+        return new Protocol(1, true, peer, EPOCH, 0, payloads[peer]).serialize();
+    }
+
+    // Peer's send path: encode into the reused direct buffer
+    @Benchmark
+    public int encode() {
+        int peer = nextPeer();
+        buffer.clear();
+        new Protocol(1, true, peer, EPOCH, 0, payloads[peer]).encode(buffer);
+        return buffer.position();
+    }
+
+    @Benchmark
+    public Protocol deserialize() throws IOException {
+        return Protocol.deserialize(datagrams[nextPeer()]);
+    }
+
+    // Peer's receive path: decode out of the direct buffer
+    @Benchmark
+    public Protocol decode() throws ProtocolException {
+        buffer.clear();
+        buffer.put(datagrams[nextPeer()]).flip();
+        return Protocol.decode(buffer);
+    }
+}
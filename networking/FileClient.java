@@ -0,0 +1,274 @@
+package networking;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Resumable, verified downloads from FileServer.
+ *
+ * The file is received into "target.part". After every chunk whose CRC32C
+ * matches, the verified length is recorded in "target.part.progress" together
+ * with the size and modification time the server reported. A retry (after a
+ * dropped connection or a damaged chunk) asks only for the bytes after the
+ * verified length; if the file changed on the server in between, it starts over.
+ * Once complete, the whole file is checked against the server's SHA-256 and
+ * renamed to target.
+ */
+
+public class FileClient
+{
+    private static final long MAX_BACKOFF = 30000;
+
+    private final String host;
+    private final int port;
+
+    public FileClient(String host, int port)
+    {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Downloads name into target, resuming after failures up to attempts times.
+     * Returns the file size.
+     */
+    public long download(String name, Path target, int attempts) throws IOException, InterruptedException
+    {
+        IOException failure = null;
+        for (int attempt = 1; attempt <= attempts; attempt++)
+        {
+            try
+            {
+                return attemptDownload(name, target);
+            }
+            catch (FileNotFoundException notFound)
+            {
+                throw notFound; //retrying will not help
+            }
+            catch (IOException e)
+            {
+                failure = e;
+                System.out.println("Attempt " + attempt + " failed: " + e.getMessage());
+                if (attempt < attempts)
+                    Thread.sleep(Math.min(MAX_BACKOFF, 500L << Math.min(attempt, 16)));
+            }
+        }
+        throw failure;
+    }
+
+    private long attemptDownload(String name, Path target) throws IOException
+    {
+        Path part = Paths.get(target + ".part");
+        Path progressFile = Paths.get(target + ".part.progress");
+
+        try (FileChannel progress = FileChannel.open(progressFile, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileChannel fileOut = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ))
+        {
+            //progress record: long fileSize, long lastModified, long verifiedOffset
+            ByteBuffer record = ByteBuffer.allocate(3 * Long.BYTES);
+            long expectedSize = -1, expectedModified = -1, offset = 0;
+            if (progress.read(record, 0) == record.capacity())
+            {
+                record.flip();
+                expectedSize = record.getLong();
+                expectedModified = record.getLong();
+                offset = Math.min(record.getLong(), fileOut.size());
+            }
+
+            try (SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress(host, port)))
+            {
+                FileTransferProtocol.writeRequest(socketChannel,
+                        new FileTransferProtocol.Request(name, offset, FileTransferProtocol.TO_END));
+                ByteBuffer header = ByteBuffer.allocate(FileTransferProtocol.RESPONSE_HEADER);
+                FileTransferProtocol.readFully(socketChannel, header);
+                header.flip();
+                byte status = header.get();
+                long fileSize = header.getLong();
+                long lastModified = header.getLong();
+
+                if (status == FileTransferProtocol.NOT_FOUND)
+                    throw new FileNotFoundException(name + " not found on " + host + ":" + port);
+                if (status == FileTransferProtocol.BUSY)
+                    throw new IOException(host + ":" + port + " is busy, try again later"); //keeps the verified prefix
+                if (offset > 0 && (status != FileTransferProtocol.OK
+                        || fileSize != expectedSize || lastModified != expectedModified))
+                {
+                    //the file changed since the earlier attempt, the verified prefix is useless
+                    saveProgress(progress, record, fileSize, lastModified, 0);
+                    throw new IOException(name + " changed on the server, restarting from 0");
+                }
+                if (status != FileTransferProtocol.OK)
+                    throw new IOException("Server rejected the request for " + name + " (status " + status + ")");
+
+                fileOut.truncate(offset); //drop anything written after the last verified chunk
+                saveProgress(progress, record, fileSize, lastModified, offset);
+                if (offset > 0)
+                    System.out.println("Resuming " + name + " at " + offset + " of " + fileSize + " bytes");
+
+                long position = receiveChunks(socketChannel, fileOut, offset, progress, record, fileSize, lastModified);
+                if (position != fileSize)
+                    throw new IOException("Received " + position + " of " + fileSize + " bytes");
+
+                byte[] expected = new byte[FileTransferProtocol.DIGEST_SIZE];
+                ByteBuffer trailer = ByteBuffer.wrap(expected);
+                FileTransferProtocol.readFully(socketChannel, trailer);
+                if (!Arrays.equals(expected, FileTransferProtocol.sha256(fileOut)))
+                {
+                    saveProgress(progress, record, fileSize, lastModified, 0);
+                    throw new IOException("SHA-256 mismatch for " + name + ", restarting from 0");
+                }
+                fileOut.force(true);
+            }
+        }
+
+        Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(progressFile);
+        return Files.size(target);
+    }
+
+    //returns the verified length of the file after the final chunk
+    private static long receiveChunks(SocketChannel socketChannel, FileChannel fileOut, long position,
+                                      FileChannel progress, ByteBuffer record, long fileSize, long lastModified)
+            throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(FileTransferProtocol.CHUNK_HEADER);
+        ByteBuffer data = ByteBuffer.allocateDirect(FileTransferProtocol.CHUNK_SIZE);
+        CRC32C crc = new CRC32C();
+        while (true)
+        {
+            header.clear();
+            FileTransferProtocol.readFully(socketChannel, header);
+            int chunkSize = header.getInt(0);
+            int checksum = header.getInt(Integer.BYTES);
+            if (chunkSize == 0)
+                return position;
+            if (chunkSize < 0 || chunkSize > FileTransferProtocol.CHUNK_SIZE)
+                throw new IOException("Bad chunk length " + chunkSize + " at " + position);
+
+            data.clear().limit(chunkSize);
+            FileTransferProtocol.readFully(socketChannel, data);
+            data.flip();
+            crc.reset();
+            crc.update(data);
+            if ((int) crc.getValue() != checksum)
+                throw new IOException("CRC32C mismatch in chunk at " + position);
+
+            data.flip();
+            while (data.hasRemaining())
+                position += fileOut.write(data, position);
+            saveProgress(progress, record, fileSize, lastModified, position);
+        }
+    }
+
+    /**
+     * Asks the server at address for the chunk manifest of name.
+     * Returns null if the server does not have the file.
+     */
+    public static FileTransferProtocol.Manifest fetchManifest(InetSocketAddress address, String name) throws IOException
+    {
+        try (SocketChannel socketChannel = SocketChannel.open(address))
+        {
+            FileTransferProtocol.writeRequest(socketChannel,
+                    new FileTransferProtocol.Request(name, 0, FileTransferProtocol.MANIFEST));
+            ByteBuffer header = ByteBuffer.allocate(FileTransferProtocol.RESPONSE_HEADER);
+            FileTransferProtocol.readFully(socketChannel, header);
+            header.flip();
+            byte status = header.get();
+            long fileSize = header.getLong();
+            long lastModified = header.getLong();
+            if (status == FileTransferProtocol.NOT_FOUND)
+                return null;
+            if (status != FileTransferProtocol.OK)
+                throw new IOException("Server rejected the manifest request for " + name + " (status " + status + ")");
+            return FileTransferProtocol.readManifest(socketChannel, fileSize, lastModified);
+        }
+    }
+
+    /**
+     * Fetches length bytes of name starting at offset into data (from its position),
+     * checking every chunk's CRC32C. Returns the size of the file on the server.
+     */
+    public static long fetchRange(InetSocketAddress address, String name, long offset, int length, ByteBuffer data)
+            throws IOException
+    {
+        try (SocketChannel socketChannel = SocketChannel.open(address))
+        {
+            FileTransferProtocol.writeRequest(socketChannel, new FileTransferProtocol.Request(name, offset, length));
+            ByteBuffer header = ByteBuffer.allocate(FileTransferProtocol.RESPONSE_HEADER);
+            FileTransferProtocol.readFully(socketChannel, header);
+            header.flip();
+            byte status = header.get();
+            long fileSize = header.getLong();
+            if (status == FileTransferProtocol.NOT_FOUND)
+                throw new FileNotFoundException(name + " not found on " + address);
+            if (status != FileTransferProtocol.OK)
+                throw new IOException("Server rejected the range request for " + name + " (status " + status + ")");
+
+            ByteBuffer chunkHeader = ByteBuffer.allocate(FileTransferProtocol.CHUNK_HEADER);
+            CRC32C crc = new CRC32C();
+            int received = 0;
+            while (true)
+            {
+                chunkHeader.clear();
+                FileTransferProtocol.readFully(socketChannel, chunkHeader);
+                int chunkSize = chunkHeader.getInt(0);
+                if (chunkSize == 0)
+                    break;
+                if (chunkSize < 0 || chunkSize > length - received)
+                    throw new IOException("Bad chunk length " + chunkSize + " at " + (offset + received));
+
+                int start = data.position();
+                ByteBuffer chunk = data.duplicate();
+                chunk.limit(start + chunkSize);
+                FileTransferProtocol.readFully(socketChannel, chunk);
+                chunk.position(start);
+                crc.reset();
+                crc.update(chunk);
+                if ((int) crc.getValue() != chunkHeader.getInt(Integer.BYTES))
+                    throw new IOException("CRC32C mismatch in chunk at " + (offset + received));
+                data.position(start + chunkSize);
+                received += chunkSize;
+            }
+            if (received != length)
+                throw new IOException("Received " + received + " of " + length + " bytes at " + offset);
+            FileTransferProtocol.readFully(socketChannel, ByteBuffer.allocate(FileTransferProtocol.DIGEST_SIZE));
+            return fileSize;
+        }
+    }
+
+    private static void saveProgress(FileChannel progress, ByteBuffer record, long fileSize, long lastModified,
+                                     long verified) throws IOException
+    {
+        record.clear();
+        record.putLong(fileSize).putLong(lastModified).putLong(verified).flip();
+        while (record.hasRemaining())
+            progress.write(record, record.position());
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        //file to fetch from the server's root and where to save it
+        String name = args.length > 0 ? args[0] : "Assignment-5-Fall18.pdf";
+        Path target = Paths.get(args.length > 1 ? args[1] : "Assignment-5-Copy.pdf");
+        String host = args.length > 2 ? args[2] : "localHost";
+
+        FileClient fileClient = new FileClient(host, 3341);
+        long start = System.nanoTime();
+        long fileSize = fileClient.download(name, target, 10);
+        System.out.printf("Received %s (%d bytes, SHA-256 verified) in %.2f s%n",
+                target, fileSize, (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,470 @@
+package networking;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Serves files under a root directory with the FileTransferProtocol: any byte
+ * range of a named file, cut into CRC32C-checked chunks and followed by the
+ * SHA-256 of the whole file, so FileClient can resume and verify downloads.
+ *
+ * Whole-file digests are cached per path and recomputed only when the size or
+ * the modification time of the file changes.
+ *
+ * The server runs until closed and handles every connection on its own virtual
+ * thread when the JVM has them (Java 21+), otherwise on a bounded pool of
+ * platform threads with a bounded queue. Connections beyond what that can hold
+ * are answered BUSY and closed instead of waiting unserved. At most
+ * maxTransfers ranges are streamed at once (further requests wait for a slot),
+ * and each client address shares one token bucket, so a client cannot get more
+ * bandwidth by opening more connections. Manifest requests take a slot too,
+ * and hashing a file whose digest or manifest is not cached charges the whole
+ * file to the client's bucket, since it reads all of it.
+ *
+ * With a mapping budget, chunks are sent straight out of a shared
+ * MappedFileCache, so repeated downloads of hot files skip the read syscalls
+ * and the copy into a per-connection buffer.
+ */
+
+public class FileServer
+{
+    private static final int MAX_PLATFORM_WORKERS = 256;
+    private static final int MAX_QUEUED = 256; //accepted connections waiting for a platform worker
+    private static final int MAX_VIRTUAL_CONNECTIONS = 10000;
+    private static final int REJECT_LINGER_MILLIS = 1000; //how long a BUSY answer waits for the client to close
+    private static final int MAX_IDLE_BUCKETS = 1024; //sweep refilled buckets once this many are kept
+
+    private ServerSocketChannel serverChannel = null;
+    private final Path root;
+    private final ExecutorService workers = newWorkerExecutor();
+    private final Semaphore connections = new Semaphore(
+            workers instanceof ThreadPoolExecutor ? MAX_PLATFORM_WORKERS + MAX_QUEUED : MAX_VIRTUAL_CONNECTIONS);
+    //answers BUSY one connection at a time; if even this falls behind, extra connections are just closed
+    private final ThreadPoolExecutor rejecter = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(64));
+    private final ConcurrentHashMap<Path, CachedDigest> digests = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Path, FileTransferProtocol.Manifest> manifests = new ConcurrentHashMap<>();
+    private final Semaphore transfers;
+    private final long clientBytesPerSecond; //0 = unlimited
+    private final ConcurrentHashMap<InetAddress, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final MappedFileCache mappings; //null = read every chunk from the file
+
+    private static class CachedDigest
+    {
+        final long size;
+        final long lastModified;
+        final byte[] digest;
+
+        CachedDigest(long size, long lastModified, byte[] digest)
+        {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+    }
+
+    public FileServer(Path root) throws IOException
+    {
+        this(root, 64, 0);
+    }
+
+    public FileServer(Path root, int maxTransfers, long clientBytesPerSecond) throws IOException
+    {
+        this(root, maxTransfers, clientBytesPerSecond, 0);
+    }
+
+    public FileServer(Path root, int maxTransfers, long clientBytesPerSecond, long mappingBudget) throws IOException
+    {
+        this.root = root.toRealPath();
+        this.transfers = new Semaphore(maxTransfers, true);
+        this.clientBytesPerSecond = clientBytesPerSecond;
+        this.mappings = mappingBudget > 0 ? new MappedFileCache(mappingBudget) : null;
+    }
+
+    public MappedFileCache getMappings()
+    {
+        return mappings;
+    }
+
+    //virtual threads if this JVM has them, looked up reflectively so the code still builds on Java 17
+    private static ExecutorService newWorkerExecutor()
+    {
+        try
+        {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_PLATFORM_WORKERS, MAX_PLATFORM_WORKERS,
+                    60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(MAX_QUEUED));
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+
+    public void createSocket(int port) throws IOException
+    {
+        //create Server and start listening, port 0 = any free port
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        System.out.println("Serving " + root + " on port " + getPort());
+    }
+
+    public int getPort()
+    {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    //accept connections until the server socket is closed, one worker per connection, BUSY past the limit
+    public void serve()
+    {
+        try
+        {
+            while (true)
+            {
+                SocketChannel socketChannel = serverChannel.accept();
+                if (!connections.tryAcquire())
+                {
+                    reject(socketChannel);
+                    continue;
+                }
+                try
+                {
+                    workers.execute(() ->
+                    {
+                        try
+                        {
+                            handle(socketChannel);
+                        }
+                        finally
+                        {
+                            connections.release();
+                        }
+                    });
+                }
+                catch (RejectedExecutionException shutdown)
+                {
+                    connections.release();
+                    reject(socketChannel);
+                }
+            }
+        }
+        catch (ClosedChannelException closed)
+        {
+            //close() was called
+        }
+        catch (IOException io)
+        {
+            io.printStackTrace();
+        }
+    }
+
+    private void reject(SocketChannel socketChannel)
+    {
+        try
+        {
+            rejecter.execute(() -> busy(socketChannel));
+        }
+        catch (RejectedExecutionException full)
+        {
+            closeQuietly(socketChannel);
+        }
+    }
+
+    //BUSY, then wait for the client to close first: closing with its request unread would reset the
+    //connection and could discard the status before the client reads it
+    private static void busy(SocketChannel socketChannel)
+    {
+        try (SocketChannel s = socketChannel)
+        {
+            sendStatus(s, FileTransferProtocol.BUSY, 0, 0);
+            s.shutdownOutput();
+            s.socket().setSoTimeout(REJECT_LINGER_MILLIS);
+            InputStream in = s.socket().getInputStream();
+            byte[] discard = new byte[512];
+            while (in.read(discard) >= 0)
+                ;
+        }
+        catch (IOException e)
+        {
+            //client gone or too slow to close, nothing more to tell it
+        }
+    }
+
+    private static void closeQuietly(SocketChannel socketChannel)
+    {
+        try
+        {
+            socketChannel.close();
+        }
+        catch (IOException e)
+        {
+            //already closed
+        }
+    }
+
+    private void handle(SocketChannel socketChannel)
+    {
+        InetAddress client = null;
+        try (SocketChannel s = socketChannel)
+        {
+            FileTransferProtocol.Request request = FileTransferProtocol.readRequest(s);
+            Path path = resolve(request.name);
+            if (path == null || !Files.isRegularFile(path))
+            {
+                sendStatus(s, FileTransferProtocol.NOT_FOUND, 0, 0);
+                return;
+            }
+            try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ))
+            {
+                long fileSize = fileChannel.size();
+                long lastModified = Files.getLastModifiedTime(path).toMillis();
+                client = ((InetSocketAddress) s.getRemoteAddress()).getAddress();
+                TokenBucket bucket = acquireBucket(client);
+                if (request.length == FileTransferProtocol.MANIFEST)
+                {
+                    //hashing reads the whole file, so it waits for a slot like a transfer
+                    FileTransferProtocol.Manifest manifest;
+                    transfers.acquire();
+                    try
+                    {
+                        manifest = manifest(path, fileChannel, fileSize, lastModified, bucket);
+                    }
+                    finally
+                    {
+                        transfers.release();
+                    }
+                    sendStatus(s, FileTransferProtocol.OK, fileSize, lastModified);
+                    FileTransferProtocol.writeManifest(s, manifest);
+                    return;
+                }
+                if (request.offset < 0 || request.offset > fileSize
+                        || (request.length < 0 && request.length != FileTransferProtocol.TO_END))
+                {
+                    sendStatus(s, FileTransferProtocol.BAD_REQUEST, fileSize, lastModified);
+                    return;
+                }
+                long end = request.length == FileTransferProtocol.TO_END
+                        ? fileSize : Math.min(fileSize, request.offset + request.length);
+
+                sendStatus(s, FileTransferProtocol.OK, fileSize, lastModified);
+                transfers.acquire();
+                try
+                {
+                    if (mappings != null)
+                        sendMappedChunks(path, fileChannel, fileSize, lastModified, request.offset, end, s, bucket);
+                    else
+                        sendChunks(fileChannel, request.offset, end, s, bucket);
+                    sendTrailer(s, digest(path, fileChannel, fileSize, lastModified, bucket));
+                }
+                finally
+                {
+                    transfers.release();
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt(); //server is shutting down
+        }
+        finally
+        {
+            if (client != null)
+                releaseBucket(client);
+        }
+    }
+
+    //the file for name, or null if it lies outside the root (.., absolute names, symlinks leading out)
+    private Path resolve(String name) throws IOException
+    {
+        Path path = root.resolve(name).normalize();
+        if (!path.startsWith(root))
+            return null;
+        if (!Files.exists(path))
+            return path;
+        Path real = path.toRealPath();
+        return real.startsWith(root) ? real : null;
+    }
+
+    //one bucket per client address, shared by its connections; it outlives them until it has refilled,
+    //otherwise a client could reset its limit by reconnecting
+    private TokenBucket acquireBucket(InetAddress client)
+    {
+        if (clientBytesPerSecond <= 0)
+            return null;
+        return buckets.compute(client, (address, bucket) ->
+        {
+            if (bucket == null)
+                bucket = new TokenBucket(clientBytesPerSecond, Math.max(clientBytesPerSecond / 4, FileTransferProtocol.CHUNK_SIZE));
+            bucket.users++;
+            return bucket;
+        });
+    }
+
+    private void releaseBucket(InetAddress client)
+    {
+        buckets.computeIfPresent(client, (address, bucket) -> --bucket.users == 0 && bucket.isFull() ? null : bucket);
+        if (buckets.size() > MAX_IDLE_BUCKETS)
+            for (InetAddress address : buckets.keySet())
+                buckets.computeIfPresent(address, (a, bucket) -> bucket.users == 0 && bucket.isFull() ? null : bucket);
+    }
+
+    private static void sendStatus(SocketChannel s, byte status, long fileSize, long lastModified) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(FileTransferProtocol.RESPONSE_HEADER);
+        header.put(status).putLong(fileSize).putLong(lastModified).flip();
+        FileTransferProtocol.writeFully(s, header);
+    }
+
+    //each chunk goes out as header + data in one buffer, so it is one write in the common case
+    private static void sendChunks(FileChannel fileChannel, long position, long end, SocketChannel s,
+                                   TokenBucket bucket) throws IOException, InterruptedException
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(FileTransferProtocol.CHUNK_HEADER + FileTransferProtocol.CHUNK_SIZE);
+        CRC32C crc = new CRC32C();
+        while (position < end)
+        {
+            int chunkSize = (int) Math.min(FileTransferProtocol.CHUNK_SIZE, end - position);
+            buffer.clear();
+            buffer.position(FileTransferProtocol.CHUNK_HEADER);
+            buffer.limit(FileTransferProtocol.CHUNK_HEADER + chunkSize);
+            while (buffer.hasRemaining())
+                if (fileChannel.read(buffer, position + buffer.position() - FileTransferProtocol.CHUNK_HEADER) < 0)
+                    throw new EOFException("File shrank while sending it");
+
+            buffer.position(FileTransferProtocol.CHUNK_HEADER);
+            crc.reset();
+            crc.update(buffer);
+            buffer.putInt(0, chunkSize).putInt(Integer.BYTES, (int) crc.getValue());
+            buffer.position(0);
+            if (bucket != null)
+                bucket.acquire(chunkSize);
+            FileTransferProtocol.writeFully(s, buffer);
+            position += chunkSize;
+        }
+    }
+
+    //same framing as sendChunks, but the data is written from the shared mapping with a gathering write
+    private void sendMappedChunks(Path path, FileChannel fileChannel, long fileSize, long lastModified,
+                                  long position, long end, SocketChannel s, TokenBucket bucket)
+            throws IOException, InterruptedException
+    {
+        ByteBuffer header = ByteBuffer.allocate(FileTransferProtocol.CHUNK_HEADER);
+        ByteBuffer[] frame = new ByteBuffer[2];
+        CRC32C crc = new CRC32C();
+        while (position < end)
+        {
+            ByteBuffer data = mappings.slice(path, fileChannel, fileSize, lastModified, position,
+                    (int) Math.min(FileTransferProtocol.CHUNK_SIZE, end - position));
+            int chunkSize = data.remaining();
+            crc.reset();
+            crc.update(data);
+            data.position(data.limit() - chunkSize);
+
+            header.clear();
+            header.putInt(chunkSize).putInt((int) crc.getValue()).flip();
+            frame[0] = header;
+            frame[1] = data;
+            if (bucket != null)
+                bucket.acquire(chunkSize);
+            while (data.hasRemaining())
+                s.write(frame);
+            position += chunkSize;
+        }
+    }
+
+    private static void sendTrailer(SocketChannel s, byte[] digest) throws IOException
+    {
+        ByteBuffer trailer = ByteBuffer.allocate(FileTransferProtocol.CHUNK_HEADER + FileTransferProtocol.DIGEST_SIZE);
+        trailer.putInt(0).putInt(0).put(digest).flip();
+        FileTransferProtocol.writeFully(s, trailer);
+    }
+
+    //a cache miss reads the whole file, whatever range was asked for, so it is charged to the client's bucket
+    //like a manifest; otherwise a zero-length request would make the server hash any file for free
+    private byte[] digest(Path path, FileChannel fileChannel, long fileSize, long lastModified, TokenBucket bucket)
+            throws IOException, InterruptedException
+    {
+        CachedDigest cached = digests.get(path);
+        if (cached != null && cached.size == fileSize && cached.lastModified == lastModified)
+            return cached.digest;
+        if (bucket != null)
+            bucket.acquire(fileSize);
+        byte[] digest = FileTransferProtocol.sha256(fileChannel);
+        digests.put(path, new CachedDigest(fileSize, lastModified, digest));
+        return digest;
+    }
+
+    //chunk hashes for swarm downloads, cached like the digest and filling the digest cache on the way;
+    //a cache miss charges the bytes it hashes to the client's bucket
+    private FileTransferProtocol.Manifest manifest(Path path, FileChannel fileChannel, long fileSize,
+                                                   long lastModified, TokenBucket bucket)
+            throws IOException, InterruptedException
+    {
+        FileTransferProtocol.Manifest cached = manifests.get(path);
+        if (cached != null && cached.fileSize == fileSize && cached.lastModified == lastModified)
+            return cached;
+        if (bucket != null)
+            bucket.acquire(fileSize);
+        FileTransferProtocol.Manifest manifest = FileTransferProtocol.buildManifest(fileChannel, lastModified,
+                FileTransferProtocol.MANIFEST_CHUNK);
+        if (manifest.fileSize != fileSize)
+            throw new IOException(path + " changed while building its manifest");
+        manifests.put(path, manifest);
+        digests.put(path, new CachedDigest(fileSize, lastModified, manifest.digest));
+        return manifest;
+    }
+
+    public void close()
+    {
+        try
+        {
+            serverChannel.close();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+        workers.shutdown();
+        rejecter.shutdown();
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        //directory to serve, port, concurrent transfers, per-client KB/s (0 = unlimited) and mapping budget in MB
+        Path root = Paths.get(args.length > 0 ? args[0] : ".");
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 3341;
+        int maxTransfers = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        long clientKBps = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        long mappingMB = args.length > 4 ? Long.parseLong(args[4]) : 256;
+
+        FileServer fileServer = new FileServer(root, maxTransfers, clientKBps * 1024, mappingMB * 1024 * 1024);
+        fileServer.createSocket(port);
+        fileServer.serve();
+    }
+}
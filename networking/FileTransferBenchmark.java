@@ -0,0 +1,99 @@
+package networking;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Loopback throughput of ParallelFileServer/ParallelFileClient: one connection
+ * (the single-stream path) against several parallel range connections.
+ * CPU is the whole process (server and client side), in seconds per GB moved.
+ *
+ * Usage: java networking.FileTransferBenchmark [sizesMB] [connections] [runs]
+ *   e.g. java networking.FileTransferBenchmark 1,100,1024,10240 1,2,4,8 3
+ *
+ * Files are created in the temp directory and deleted afterwards, so make sure
+ * it has room for two copies of the largest size.
+ */
+
+public class FileTransferBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        String[] sizes = (args.length > 0 ? args[0] : "1,100,1024").split(",");
+        String[] connectionCounts = (args.length > 1 ? args[1] : "1,2,4,8").split(",");
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        System.out.printf("%10s %12s %12s %12s %12s%n", "size", "connections", "best MB/s", "mean MB/s", "cpu s/GB");
+        for (String size : sizes)
+        {
+            long bytes = Long.parseLong(size.trim()) * 1024 * 1024;
+            Path source = createFile(bytes);
+            Path target = Files.createTempFile("transfer-copy", ".bin");
+
+            ParallelFileServer fileServer = new ParallelFileServer(source.toFile());
+            fileServer.createSocket(0);
+            Thread serverThread = new Thread(fileServer::serve);
+            serverThread.start();
+            ParallelFileClient fileClient = new ParallelFileClient("localhost", fileServer.getPort());
+            try
+            {
+                for (String count : connectionCounts)
+                {
+                    int connections = Integer.parseInt(count.trim());
+                    fileClient.receiveFile(target.toString(), connections); //warm up
+                    double best = 0, total = 0;
+                    long cpuStart = processCpuNanos();
+                    for (int run = 0; run < runs; run++)
+                    {
+                        long start = System.nanoTime();
+                        long received = fileClient.receiveFile(target.toString(), connections);
+                        double throughput = received / ((System.nanoTime() - start) / 1e9) / (1024 * 1024);
+                        if (received != bytes || Files.size(target) != bytes)
+                            throw new IOException("Short transfer: " + received + " of " + bytes + " bytes");
+                        best = Math.max(best, throughput);
+                        total += throughput;
+                    }
+                    double cpuPerGB = (processCpuNanos() - cpuStart) / 1e9 / ((double) bytes * runs / (1L << 30));
+                    System.out.printf("%8sMB %12d %12.1f %12.1f %12.3f%n", size.trim(), connections, best, total / runs, cpuPerGB);
+                }
+            }
+            finally
+            {
+                fileServer.close();
+                serverThread.join();
+                Files.deleteIfExists(source);
+                Files.deleteIfExists(target);
+            }
+        }
+    }
+
+    private static long processCpuNanos()
+    {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+    }
+
+    //fills the file with a repeated random block, fast to create and not trivially compressible
+    private static Path createFile(long bytes) throws IOException
+    {
+        Path file = Files.createTempFile("transfer-source", ".bin");
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE))
+        {
+            long written = 0;
+            while (written < bytes)
+            {
+                ByteBuffer buffer = ByteBuffer.wrap(block, 0, (int) Math.min(block.length, bytes - written));
+                while (buffer.hasRemaining())
+                    written += out.write(buffer);
+            }
+        }
+        return file;
+    }
+}
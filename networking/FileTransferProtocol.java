@@ -0,0 +1,231 @@
+package networking;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Wire format shared by FileServer and FileClient.
+ *
+ * Request:   short nameLength, name (UTF-8), long offset, long length (TO_END = rest of the file)
+ * Response:  byte status, long fileSize, long lastModified
+ *            then, if status is OK, chunks of: int length, int crc32c, length bytes
+ *            a chunk of length 0 ends the range and is followed by the SHA-256 of the whole file
+ *            BUSY means the server has too many connections; try again later
+ *
+ * A request with length MANIFEST is answered with the response header and a
+ * Manifest instead: int chunkSize, int chunkCount, the SHA-256 of every chunk
+ * and the SHA-256 of the whole file. Swarm downloads use it to find which
+ * peers hold which chunks and to verify each chunk before assembly.
+ *
+ * fileSize and lastModified let a resuming client notice that the file changed
+ * since its earlier attempt; the per-chunk CRC32C lets it keep everything up to
+ * the first damaged chunk; the digest verifies the finished file end to end.
+ */
+public final class FileTransferProtocol
+{
+    public static final byte OK = 0;
+    public static final byte NOT_FOUND = 1;
+    public static final byte BAD_REQUEST = 2;
+    public static final byte BUSY = 3;
+
+    public static final long TO_END = -1;
+    public static final long MANIFEST = -2;
+    public static final int MANIFEST_CHUNK = 1024 * 1024;
+    public static final int CHUNK_SIZE = 256 * 1024;
+    public static final int CHUNK_HEADER = 2 * Integer.BYTES;
+    public static final int RESPONSE_HEADER = 1 + 2 * Long.BYTES;
+    public static final int DIGEST_SIZE = 32;
+    public static final int MAX_NAME = 4096;
+
+    private FileTransferProtocol()
+    {
+
+    }
+
+    public static class Request
+    {
+        public final String name;
+        public final long offset;
+        public final long length;
+
+        public Request(String name, long offset, long length)
+        {
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    public static class Manifest
+    {
+        public final long fileSize;
+        public final long lastModified;
+        public final int chunkSize;
+        public final byte[][] chunkHashes;
+        public final byte[] digest;
+
+        public Manifest(long fileSize, long lastModified, int chunkSize, byte[][] chunkHashes, byte[] digest)
+        {
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+            this.chunkSize = chunkSize;
+            this.chunkHashes = chunkHashes;
+            this.digest = digest;
+        }
+
+        public int chunkCount()
+        {
+            return chunkHashes.length;
+        }
+
+        public long chunkOffset(int chunk)
+        {
+            return (long) chunk * chunkSize;
+        }
+
+        public int chunkLength(int chunk)
+        {
+            return (int) Math.min(chunkSize, fileSize - chunkOffset(chunk));
+        }
+
+        //true if other has identical bytes for this chunk, even when the files differ elsewhere
+        public boolean sameChunk(Manifest other, int chunk)
+        {
+            return chunk < other.chunkCount() && chunkSize == other.chunkSize
+                    && chunkLength(chunk) == other.chunkLength(chunk)
+                    && Arrays.equals(chunkHashes[chunk], other.chunkHashes[chunk]);
+        }
+    }
+
+    //one pass over the file for both the chunk hashes and the whole-file digest
+    public static Manifest buildManifest(FileChannel fileChannel, long lastModified, int chunkSize) throws IOException
+    {
+        long fileSize = fileChannel.size();
+        int chunkCount = (int) ((fileSize + chunkSize - 1) / chunkSize);
+        byte[][] chunkHashes = new byte[chunkCount][];
+        MessageDigest whole = newDigest();
+        MessageDigest chunk = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(chunkSize);
+        for (int i = 0; i < chunkCount; i++)
+        {
+            buffer.clear();
+            long position = (long) i * chunkSize;
+            buffer.limit((int) Math.min(chunkSize, fileSize - position));
+            while (buffer.hasRemaining())
+                if (fileChannel.read(buffer, position + buffer.position()) < 0)
+                    throw new EOFException("File shrank while hashing it");
+            buffer.flip();
+            whole.update(buffer.duplicate());
+            chunk.update(buffer);
+            chunkHashes[i] = chunk.digest();
+        }
+        return new Manifest(fileSize, lastModified, chunkSize, chunkHashes, whole.digest());
+    }
+
+    public static void writeManifest(WritableByteChannel channel, Manifest manifest) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(2 * Integer.BYTES + (manifest.chunkCount() + 1) * DIGEST_SIZE);
+        buffer.putInt(manifest.chunkSize).putInt(manifest.chunkCount());
+        for (byte[] hash : manifest.chunkHashes)
+            buffer.put(hash);
+        buffer.put(manifest.digest).flip();
+        writeFully(channel, buffer);
+    }
+
+    public static Manifest readManifest(ReadableByteChannel channel, long fileSize, long lastModified) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES);
+        readFully(channel, header);
+        header.flip();
+        int chunkSize = header.getInt();
+        int chunkCount = header.getInt();
+        if (chunkSize <= 0 || chunkCount != (fileSize + chunkSize - 1) / chunkSize)
+            throw new IOException("Manifest does not match the file size " + fileSize);
+
+        ByteBuffer body = ByteBuffer.allocate((chunkCount + 1) * DIGEST_SIZE);
+        readFully(channel, body);
+        body.flip();
+        byte[][] chunkHashes = new byte[chunkCount][DIGEST_SIZE];
+        for (byte[] hash : chunkHashes)
+            body.get(hash);
+        byte[] digest = new byte[DIGEST_SIZE];
+        body.get(digest);
+        return new Manifest(fileSize, lastModified, chunkSize, chunkHashes, digest);
+    }
+
+    public static void writeRequest(WritableByteChannel channel, Request request) throws IOException
+    {
+        byte[] name = request.name.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_NAME)
+            throw new IOException("File name too long: " + name.length + " bytes");
+        ByteBuffer buffer = ByteBuffer.allocate(Short.BYTES + name.length + 2 * Long.BYTES);
+        buffer.putShort((short) name.length).put(name).putLong(request.offset).putLong(request.length).flip();
+        writeFully(channel, buffer);
+    }
+
+    public static Request readRequest(ReadableByteChannel channel) throws IOException
+    {
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(Short.BYTES);
+        readFully(channel, lengthBuffer);
+        int nameLength = lengthBuffer.flip().getShort() & 0xFFFF;
+        if (nameLength > MAX_NAME)
+            throw new IOException("File name too long: " + nameLength + " bytes");
+
+        ByteBuffer buffer = ByteBuffer.allocate(nameLength + 2 * Long.BYTES);
+        readFully(channel, buffer);
+        buffer.flip();
+        byte[] name = new byte[nameLength];
+        buffer.get(name);
+        return new Request(new String(name, StandardCharsets.UTF_8), buffer.getLong(), buffer.getLong());
+    }
+
+    public static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+            if (channel.read(buffer) < 0)
+                throw new EOFException("Connection closed with " + buffer.remaining() + " bytes missing");
+    }
+
+    public static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    //SHA-256 of a whole file, read through a direct buffer
+    public static byte[] sha256(FileChannel fileChannel) throws IOException
+    {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        long position = 0;
+        int readBytes;
+        while ((readBytes = fileChannel.read(buffer, position)) >= 0)
+        {
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+            position += readBytes;
+        }
+        return digest.digest();
+    }
+
+    public static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("SHA-256 is required on every Java platform", e);
+        }
+    }
+}
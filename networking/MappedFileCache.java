@@ -0,0 +1,173 @@
+package networking;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Read-only memory mappings of hot files, shared by every sender.
+ *
+ * Files are mapped in REGION_SIZE pieces so a huge file does not pin one huge
+ * mapping, and the regions are kept in LRU order within a byte budget. Regions
+ * are keyed by path, size and modification time: once a file changes, its old
+ * regions no longer match and are dropped on the next lookup for that path.
+ *
+ * Evicted mappings are only released when the GC collects the buffer (the JDK
+ * has no public unmap), so the budget bounds what the cache keeps reachable,
+ * not the address space in use at any instant.
+ */
+public class MappedFileCache
+{
+    public static final long REGION_SIZE = 64L * 1024 * 1024;
+
+    private final long budget;
+    private final LinkedHashMap<RegionKey, MappedByteBuffer> regions = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Path, Held> versions = new HashMap<>(); //only paths with at least one cached region
+    private long mappedBytes;
+    private long hits, misses;
+
+    private static final class RegionKey
+    {
+        final Path path;
+        final long fileSize;
+        final long lastModified;
+        final long index;
+
+        RegionKey(Path path, long fileSize, long lastModified, long index)
+        {
+            this.path = path;
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof RegionKey))
+                return false;
+            RegionKey other = (RegionKey) o;
+            return index == other.index && fileSize == other.fileSize
+                    && lastModified == other.lastModified && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(path, fileSize, lastModified, index);
+        }
+    }
+
+    //lastModified of the regions we hold for a path, and how many there are
+    private static final class Held
+    {
+        final long lastModified;
+        int regions;
+
+        Held(long lastModified)
+        {
+            this.lastModified = lastModified;
+        }
+    }
+
+    public MappedFileCache(long budget)
+    {
+        this.budget = budget;
+    }
+
+    /**
+     * Returns a view of up to length bytes of the file starting at position,
+     * ending early at a region boundary. The view has its own position and
+     * limit, so concurrent callers never disturb each other.
+     */
+    public ByteBuffer slice(Path path, FileChannel fileChannel, long fileSize, long lastModified,
+                            long position, int length) throws IOException
+    {
+        long index = position / REGION_SIZE;
+        long regionStart = index * REGION_SIZE;
+        MappedByteBuffer region;
+        synchronized (this)
+        {
+            Held held = versions.get(path);
+            if (held != null && held.lastModified != lastModified)
+                dropRegions(path); //the file changed since we mapped it
+
+            RegionKey key = new RegionKey(path, fileSize, lastModified, index);
+            region = regions.get(key);
+            if (region != null)
+            {
+                hits++;
+            }
+            else
+            {
+                misses++;
+                region = fileChannel.map(FileChannel.MapMode.READ_ONLY, regionStart,
+                        Math.min(REGION_SIZE, fileSize - regionStart));
+                if (region.capacity() <= budget)
+                {
+                    regions.put(key, region);
+                    mappedBytes += region.capacity();
+                    versions.computeIfAbsent(path, p -> new Held(lastModified)).regions++;
+                    evict();
+                }
+            }
+        }
+        int offset = (int) (position - regionStart);
+        ByteBuffer view = region.duplicate();
+        view.position(offset);
+        view.limit((int) Math.min(region.capacity(), offset + (long) length));
+        return view;
+    }
+
+    public synchronized void invalidate(Path path)
+    {
+        dropRegions(path);
+    }
+
+    public synchronized long getMappedBytes()
+    {
+        return mappedBytes;
+    }
+
+    public synchronized double getHitRate()
+    {
+        return hits + misses == 0 ? 0.0 : (double) hits / (hits + misses);
+    }
+
+    private void dropRegions(Path path)
+    {
+        for (Iterator<Map.Entry<RegionKey, MappedByteBuffer>> it = regions.entrySet().iterator(); it.hasNext(); )
+        {
+            Map.Entry<RegionKey, MappedByteBuffer> entry = it.next();
+            if (entry.getKey().path.equals(path))
+            {
+                mappedBytes -= entry.getValue().capacity();
+                it.remove();
+            }
+        }
+        versions.remove(path);
+    }
+
+    //least recently used regions go first
+    private void evict()
+    {
+        Iterator<Map.Entry<RegionKey, MappedByteBuffer>> it = regions.entrySet().iterator();
+        while (mappedBytes > budget && it.hasNext())
+        {
+            Map.Entry<RegionKey, MappedByteBuffer> eldest = it.next();
+            mappedBytes -= eldest.getValue().capacity();
+            it.remove();
+            Path path = eldest.getKey().path;
+            Held held = versions.get(path);
+            if (held != null && --held.regions == 0)
+                versions.remove(path); //last region of the file is gone
+        }
+    }
+}
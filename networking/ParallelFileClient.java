@@ -0,0 +1,127 @@
+package networking;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads a file from ParallelFileServer by splitting it into equal ranges
+ * and fetching each range over its own connection. Every range is written
+ * straight to its offset with FileChannel.transferFrom(channel, position, count),
+ * so the connections never wait for each other and no byte[] copy is made.
+ */
+
+public class ParallelFileClient
+{
+    private static final int MIN_RANGE = 64 * 1024; //smaller pieces are not worth a connection
+
+    private final String host;
+    private final int port;
+
+    public ParallelFileClient(String host, int port)
+    {
+        this.host = host;
+        this.port = port;
+    }
+
+    //returns the number of bytes received
+    public long receiveFile(String target, int connections) throws IOException, InterruptedException
+    {
+        long fileSize = requestSize();
+
+        //truncate, never append: a retry must not leave two copies behind
+        try (FileChannel fileOut = FileChannel.open(Paths.get(target), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            int ranges = (int) Math.max(1, Math.min(connections, fileSize / MIN_RANGE));
+            long rangeSize = (fileSize + ranges - 1) / ranges;
+
+            ExecutorService workers = Executors.newFixedThreadPool(ranges);
+            try
+            {
+                List<Future<Long>> results = new ArrayList<>();
+                for (int i = 0; i < ranges; i++)
+                {
+                    long offset = i * rangeSize;
+                    long length = Math.min(rangeSize, fileSize - offset);
+                    results.add(workers.submit(() -> receiveRange(fileOut, offset, length)));
+                }
+
+                long totalBytesRead = 0;
+                for (Future<Long> result : results)
+                    totalBytesRead += result.get();
+                return totalBytesRead;
+            }
+            catch (ExecutionException e)
+            {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+                throw new IOException(e.getCause());
+            }
+            finally
+            {
+                workers.shutdownNow();
+            }
+        }
+    }
+
+    private long requestSize() throws IOException
+    {
+        try (SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress(host, port)))
+        {
+            return request(socketChannel, 0, 0);
+        }
+    }
+
+    private long receiveRange(FileChannel fileOut, long offset, long length) throws IOException
+    {
+        try (SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress(host, port)))
+        {
+            request(socketChannel, offset, length);
+            long received = TCPClientFile.receiveRange(socketChannel, fileOut, offset, length);
+            if (received < length)
+                throw new EOFException("Connection closed at " + (offset + received) + " of range " + offset + "-" + (offset + length));
+            return received;
+        }
+    }
+
+    //sends the range request and returns the file size from the response
+    private static long request(SocketChannel socketChannel, long offset, long length) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(2 * Long.BYTES);
+        header.putLong(offset).putLong(length).flip();
+        while (header.hasRemaining())
+            socketChannel.write(header);
+
+        header.clear().limit(Long.BYTES);
+        while (header.hasRemaining())
+            if (socketChannel.read(header) < 0)
+                throw new EOFException("Connection closed before the file size");
+        header.flip();
+        return header.getLong();
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        //insert the path/name of your target file or pass it as the first argument
+        String target = args.length > 0 ? args[0] : "Assignment-5-Copy.pdf";
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        ParallelFileClient fileClient = new ParallelFileClient("localHost", 3340);
+        long start = System.nanoTime();
+        long totalBytesRead = fileClient.receiveFile(target, connections);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Received %d bytes over %d connections in %.2f s (%.1f MB/s)%n",
+                totalBytesRead, connections, seconds, totalBytesRead / seconds / (1024 * 1024));
+    }
+}
@@ -0,0 +1,123 @@
+package networking;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * File server for ParallelFileClient. Every connection asks for one byte range
+ * of the file, so a client can pull a large file over several connections at once.
+ *
+ * Request:  long offset, long length
+ * Response: long fileSize, then min(length, fileSize - offset) bytes of the file
+ *
+ * A request with length 0 just returns the file size. The range is sent with
+ * FileChannel.transferTo, so the bytes never pass through the JVM heap.
+ */
+
+public class ParallelFileServer
+{
+    private ServerSocketChannel serverChannel = null;
+    private final File file;
+    private final ExecutorService workers = Executors.newCachedThreadPool();
+
+    public ParallelFileServer(File file)
+    {
+        this.file = file;
+    }
+
+    public void createSocket(int port) throws IOException
+    {
+        //create Server and start listening, port 0 = any free port
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        System.out.println("Serving " + file + " on port " + getPort());
+    }
+
+    public int getPort()
+    {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    //accept connections until the server socket is closed, one worker per connection
+    public void serve()
+    {
+        try
+        {
+            while (true)
+            {
+                SocketChannel socketChannel = serverChannel.accept();
+                workers.execute(() -> sendRange(socketChannel));
+            }
+        }
+        catch (ClosedChannelException closed)
+        {
+            //close() was called
+        }
+        catch (IOException io)
+        {
+            io.printStackTrace();
+        }
+    }
+
+    private void sendRange(SocketChannel socketChannel)
+    {
+        try (SocketChannel s = socketChannel;
+             FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer header = ByteBuffer.allocate(2 * Long.BYTES);
+            while (header.hasRemaining())
+                if (s.read(header) < 0)
+                    throw new EOFException("Connection closed before the range request");
+            header.flip();
+            long offset = header.getLong();
+            long length = header.getLong();
+            long fileSize = fileChannel.size();
+
+            header.clear();
+            header.putLong(fileSize).flip();
+            while (header.hasRemaining())
+                s.write(header);
+
+            //clamp the range to the file
+            long position = Math.min(Math.max(offset, 0), fileSize);
+            long count = Math.min(Math.max(length, 0), fileSize - position);
+            TCPServerFile.sendRange(fileChannel, position, count, s);
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    public void close()
+    {
+        try
+        {
+            serverChannel.close();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+        workers.shutdown();
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        //write the filename below or pass it as the first argument
+        String fileName = args.length > 0 ? args[0] : "Assignment-5-Fall18.pdf";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 3340;
+
+        ParallelFileServer fileServer = new ParallelFileServer(new File(fileName));
+        fileServer.createSocket(port);
+        fileServer.serve();
+    }
+}
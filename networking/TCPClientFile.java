@@ -1,118 +1,99 @@
-package networking;
-
-
-import java.io.*;
-import java.net.Socket;
-import java.net.SocketException;
-import java.net.UnknownHostException;
-
-/**
- * 
- * @author cjaiswal
- *
- *  
- * 
- */
-
-public class TCPClientFile 
-{
-    private Socket socket = null;
-    private DataInputStream inStream = null;
-    private DataOutputStream outStream = null;
-
-    public TCPClientFile() 
-    {
-
-    }
-
-    public void createSocket()
-    {
-        try 
-        {
-        	//connect to localHost at given port #
-            socket = new Socket("localHost", 3339);
-            System.out.println("Connected");
-            //fetch the streams
-            inStream = new DataInputStream(socket.getInputStream());
-            outStream = new DataOutputStream(socket.getOutputStream());
-        } 
-        catch (Exception u) 
-        {
-            u.printStackTrace();
-        } 
-    }
-
-    public void receiveFile()
-    {
-    	byte [] data = null;
-    	//decide the max buffer size in bytes
-    	//a typical value for a tcp payload is 1000 bytes, this is because of
-    	//the common MTU of the underlying ethernet of 1500 bytes
-    	//HOWEVER their is no optimal value for tcp payload, just a best guess i.e. 1000 bytes
-    	final int MAX_BUFFER = 1000;
-    	try
-    	{
-    		//read the size of the file <- coming from Server
-    		long fileSize = inStream.readLong();
-    		int bufferSize=0;
-    		
-    		//decide the data reading bufferSize
-    		if(fileSize > MAX_BUFFER)
-    			bufferSize = MAX_BUFFER;
-    		else
-    			bufferSize = (int)fileSize;
-    		
-    		data = new byte[bufferSize];
-    		
-    		//insert the path/name of your target file
-    		FileOutputStream fileOut = new FileOutputStream("Assignment-5-Copy.pdf",true);		
-    		
-    		//now read the file coming from Server & save it onto disk
-  
-    		long totalBytesRead = 0;
-    		while(true)
-    		{
-    			//read bufferSize number of bytes from Server
-    			int readBytes = inStream.read(data,0,bufferSize);
-
-    			byte[] arrayBytes = new byte[readBytes];
-    			System.arraycopy(data, 0, arrayBytes, 0, readBytes);
-    			totalBytesRead = totalBytesRead + readBytes;
-    			
-    			if(readBytes>0)
-    			{
-    				//write the data to the file
-    				fileOut.write(arrayBytes);
-    	    		fileOut.flush();
-    			}
-
-    			//stop if fileSize number of bytes are read
-    			if(totalBytesRead == fileSize)
-    				break;
-    			
-    			//update fileSize for the last remaining block of data
-    			if((fileSize-totalBytesRead) < MAX_BUFFER)
-    				bufferSize = (int) (fileSize-totalBytesRead);
-    			
-    			//reinitialize the data buffer
-    			data = new byte[bufferSize];
-    		}
-    		System.out.println("File Size is: "+fileSize + ", number of bytes read are: " + totalBytesRead);
-    		
-    		socket.close();
-    		fileOut.close();
-    		inStream.close();
-    	}
-    	catch(Exception e)
-    	{
-    		e.printStackTrace();
-    	}
-    }
-    
-    public static void main(String[] args) throws Exception 
-    {
-        TCPClientFile fileClient = new TCPClientFile();
-        fileClient.createSocket();
-        fileClient.receiveFile();
-    }
+package networking;
+
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 
+ * @author cjaiswal
+ *
+ *  
+ * 
+ */
+
+public class TCPClientFile 
+{
+    private SocketChannel socketChannel = null;
+
+    public TCPClientFile() 
+    {
+
+    }
+
+    public void createSocket()
+    {
+        try 
+        {
+        	//connect to localHost at given port #
+            socketChannel = SocketChannel.open(new InetSocketAddress("localHost", 3339));
+            System.out.println("Connected");
+        } 
+        catch (Exception u) 
+        {
+            u.printStackTrace();
+        } 
+    }
+
+    public void receiveFile()
+    {
+    	//insert the path/name of your target file
+    	//truncate instead of append, so a retry does not leave two copies in the file
+    	try (FileChannel fileOut = FileChannel.open(Paths.get("Assignment-5-Copy.pdf"), StandardOpenOption.CREATE,
+    			StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+    	{
+    		//read the size of the file <- coming from Server
+    		ByteBuffer header = ByteBuffer.allocate(Long.BYTES);
+    		while (header.hasRemaining())
+    			if (socketChannel.read(header) < 0)
+    				throw new EOFException("Connection closed before the file size");
+    		header.flip();
+    		long fileSize = header.getLong();
+    		
+    		//now read the file coming from Server & save it onto disk;
+    		//transferFrom moves socket data into the file without a user-space byte[]
+    		long totalBytesRead = receiveRange(socketChannel, fileOut, 0, fileSize);
+    		System.out.println("File Size is: "+fileSize + ", number of bytes read are: " + totalBytesRead);
+    		
+    		socketChannel.close();
+    	}
+    	catch(Exception e)
+    	{
+    		e.printStackTrace();
+    	}
+    }
+
+    //transferFrom returns 0 both for "nothing yet" and at end of stream on a blocking
+    //channel, so a zero is followed by a one-byte read to tell the two apart
+    static long receiveRange(SocketChannel source, FileChannel fileOut, long position, long count) throws IOException
+    {
+    	ByteBuffer probe = ByteBuffer.allocate(1);
+    	long received = 0;
+    	while (received < count)
+    	{
+    		long bytes = fileOut.transferFrom(source, position + received, count - received);
+    		if (bytes == 0)
+    		{
+    			probe.clear();
+    			if (source.read(probe) < 0)
+    				break;
+    			probe.flip();
+    			bytes = fileOut.write(probe, position + received);
+    		}
+    		received += bytes;
+    	}
+    	return received;
+    }
+    
+    public static void main(String[] args) throws Exception 
+    {
+        TCPClientFile fileClient = new TCPClientFile();
+        fileClient.createSocket();
+        fileClient.receiveFile();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,54 @@
+package networking;
+
+/**
+ * Token bucket limiting a byte rate: tokens refill at bytesPerSecond up to
+ * burst bytes, and acquire() sleeps until enough have accumulated.
+ *
+ * Shared by all connections from the same client, so opening more connections
+ * does not buy a client more bandwidth.
+ */
+public class TokenBucket
+{
+    private final long bytesPerSecond;
+    private final long burst;
+    private double tokens;
+    private long lastRefill;
+    int users; //connections currently sharing this bucket, guarded by FileServer
+
+    public TokenBucket(long bytesPerSecond, long burst)
+    {
+        this.bytesPerSecond = bytesPerSecond;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    //blocks until bytes may be sent
+    public void acquire(long bytes) throws InterruptedException
+    {
+        long waitNanos;
+        synchronized (this)
+        {
+            refill();
+            //take the tokens now (going negative) so concurrent senders queue up behind each other
+            tokens -= bytes;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens * 1_000_000_000.0 / bytesPerSecond);
+        }
+        if (waitNanos > 0)
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+    }
+
+    //a full bucket carries no debt, so dropping it and starting a new one changes nothing
+    public synchronized boolean isFull()
+    {
+        refill();
+        return tokens >= burst;
+    }
+
+    private void refill()
+    {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * bytesPerSecond / 1_000_000_000.0);
+        lastRefill = now;
+    }
+}
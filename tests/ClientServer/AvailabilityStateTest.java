@@ -0,0 +1,72 @@
+package ClientServer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Updates built by AvailabilityState, applied by the client-side
+ * AvailabilityView, across a server restart.
+ */
+class AvailabilityStateTest {
+    private static final int NODE_A = 0x0A000001, NODE_B = 0x0A000002;
+
+    @Test
+    void deltasBringAViewUpToDate() {
+        AvailabilityState state = new AvailabilityState(64, 32);
+        AvailabilityView view = new AvailabilityView();
+        state.updateListing(NODE_A, "a.txt,b.txt");
+        assertTrue(view.apply(state.buildUpdate(0)));
+        assertEquals(state.getEpoch(), view.getEpoch());
+
+        state.updateListing(NODE_A, "b.txt,c.txt");
+        state.updateListing(NODE_B, "d.txt");
+        String delta = state.buildUpdate(view.getVersion());
+        assertTrue(delta.startsWith(AvailabilityState.DELTA));
+        assertTrue(view.apply(delta));
+        assertEquals(state.getVersion(), view.getVersion());
+        assertEquals("10.0.0.1::b.txt,c.txt,\n10.0.0.2::d.txt,\n", view.toString());
+        assertNull(state.buildUpdate(view.getVersion()));
+    }
+
+    @Test
+    void aRestartedServerSendsASnapshotAndItsDeltasAreNotMixedIn() {
+        AvailabilityState before = new AvailabilityState(64, 32);
+        AvailabilityView view = new AvailabilityView();
+        for (int i = 0; i < 10; i++) {
+            before.updateListing(NODE_A, "file" + i + ".txt");
+        }
+        assertTrue(view.apply(before.buildUpdate(0)));
+
+        // Same version numbers, different history
+        AvailabilityState after = new AvailabilityState(64, 32);
+        assertNotEquals(before.getEpoch(), after.getEpoch());
+        after.updateListing(NODE_B, "other.txt");
+        for (int i = 0; i < 12; i++) {
+            after.updateListing(NODE_B, "other" + i + ".txt");
+        }
+        assertTrue(after.getVersion() > view.getVersion());
+
+        assertFalse(view.apply(after.buildUpdate(view.getVersion())));
+        assertEquals(before.getEpoch(), view.getEpoch());
+
+        // The server only trusts a version acknowledged with its own epoch
+        HeartbeatPayload ack = HeartbeatPayload.parse(HeartbeatPayload.EPOCH + " " + view.getEpoch() + "\n");
+        int acked = ack.availabilityEpoch == after.getEpoch() ? view.getVersion() : -1;
+        String update = after.buildUpdate(acked);
+        assertTrue(update.startsWith(AvailabilityState.SNAPSHOT));
+        assertTrue(view.apply(update));
+        assertEquals(after.getEpoch(), view.getEpoch());
+        assertEquals("10.0.0.2::other11.txt,\n", view.toString());
+    }
+
+    @Test
+    void aStaleViewIsResetEvenBeforeTheNewServerHasChanges() {
+        AvailabilityState empty = new AvailabilityState(64, 32);
+        AvailabilityView view = new AvailabilityView();
+        assertNull(empty.buildUpdate(0)); // Current: acknowledged version 0 of this epoch
+        String snapshot = empty.buildUpdate(-1);
+        assertTrue(view.apply(snapshot));
+        assertEquals("No active clients.", view.toString());
+    }
+}
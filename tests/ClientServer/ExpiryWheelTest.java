@@ -0,0 +1,52 @@
+package ClientServer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Deadlines per int node id: expiry within one tick, moves, removal, and
+ * node ids across the whole int range (packed addresses above 127.255.255.255
+ * are negative).
+ */
+class ExpiryWheelTest {
+    @Test
+    void expiresEachNodeOnceAfterItsDeadline() {
+        ExpiryWheel wheel = new ExpiryWheel(100, 1000, 0);
+        int[] nodes = {0, 1, -1, Integer.MIN_VALUE, 0x0A000001, 0xC0A80001};
+        for (int i = 0; i < nodes.length; i++) {
+            wheel.touch(nodes[i], 500 + i * 100);
+        }
+        wheel.touch(1, 5000); // Moved later by a heartbeat
+        assertTrue(wheel.remove(-1));
+        assertFalse(wheel.remove(-1));
+        assertEquals(5, wheel.size());
+
+        int[] expired = wheel.advance(1200);
+        Arrays.sort(expired);
+        int[] expected = {Integer.MIN_VALUE, 0, 0x0A000001, 0xC0A80001};
+        Arrays.sort(expected);
+        assertArrayEquals(expected, expired);
+        assertEquals(0, wheel.advance(1200).length);
+        assertTrue(wheel.contains(1));
+        assertFalse(wheel.contains(0));
+
+        assertArrayEquals(new int[] {1}, wheel.advance(5200));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void tracksManyNodes() {
+        ExpiryWheel wheel = new ExpiryWheel(1000, 30000, 0);
+        for (int node = 1; node <= 100_000; node++) {
+            wheel.touch(node * 0x01000193, 30000 + node % 20 * 1000);
+        }
+        int expired = 0;
+        for (long now = 31000; now <= 52000; now += 1000) {
+            expired += wheel.advance(now).length;
+        }
+        assertEquals(100_000, expired);
+        assertEquals(0, wheel.size());
+    }
+}
@@ -0,0 +1,99 @@
+package ClientServer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The hash cache: kept at the configured path (never in or next to the shared
+ * directory), reused after a restart, and an unwritable path only costs the
+ * persistence, not the hashes.
+ */
+class FileIndexTest {
+    @TempDir
+    Path temp;
+
+    // Last field of a "name|size|mtime|sha256" entry
+    private static String hashOf(String entry) {
+        return entry.substring(entry.lastIndexOf(FileIndex.FIELD) + 1);
+    }
+
+    private static String listing(FileIndex index) {
+        HeartbeatPayload payload = new HeartbeatPayload();
+        index.describeSince(-1, payload);
+        return payload.listing;
+    }
+
+    // Runs hashPending until every listed file has a hash and the hasher is idle again (cache saved)
+    private static String hashAll(FileIndex index) throws InterruptedException {
+        Thread hasher = new Thread(index::hashPending);
+        hasher.start();
+        try {
+            for (int i = 0; i < 500; i++) {
+                String listing = listing(index);
+                if (!listing.contains("|,") && hasher.getState() == Thread.State.WAITING) { // No empty hash
+                    return listing;
+                }
+                Thread.sleep(10);
+            }
+            return fail("Files were not hashed: " + listing(index));
+        } finally {
+            hasher.interrupt();
+            hasher.join();
+        }
+    }
+
+    @Test
+    void cacheIsWrittenToTheConfiguredFileAndReused() throws Exception {
+        Path home = Files.createDirectory(temp.resolve("home"));
+        Files.write(home.resolve("a.txt"), "alpha".getBytes(StandardCharsets.UTF_8));
+        Files.write(home.resolve("b.txt"), "beta".getBytes(StandardCharsets.UTF_8));
+        Path cache = temp.resolve("cache").resolve("home.hac-index"); // Parent created on the first write
+
+        FileIndex index = new FileIndex(home, cache, 64);
+        index.reconcile();
+        String hashed = hashAll(index);
+        for (String entry : hashed.split(",")) {
+            assertEquals(64, hashOf(entry).length(), entry);
+        }
+        assertEquals(2, Files.readAllLines(cache).size());
+        try (var files = Files.list(home)) {
+            assertEquals(2, files.count()); // Nothing written into the shared directory
+        }
+
+        FileIndex restarted = new FileIndex(home, cache, 64);
+        restarted.reconcile();
+        assertEquals(hashed, listing(restarted)); // Hashes known before any hashing
+    }
+
+    @Test
+    void unwritableCacheStillListsHashes() throws Exception {
+        Path home = Files.createDirectory(temp.resolve("home"));
+        Files.write(home.resolve("a.txt"), "alpha".getBytes(StandardCharsets.UTF_8));
+        Path notADirectory = Files.write(temp.resolve("file"), new byte[0]);
+        Path cache = notADirectory.resolve("home.hac-index");
+
+        FileIndex index = new FileIndex(home, cache, 64);
+        index.reconcile();
+        String hashed = hashAll(index);
+        assertEquals(64, hashOf(hashed.split(",")[0]).length());
+        assertFalse(Files.exists(cache));
+        assertEquals(List.of(), Files.readAllLines(notADirectory));
+    }
+
+    @Test
+    void defaultCacheIsOutsideTheDirectoryAndPerDirectory() {
+        Path a = temp.resolve("x").resolve("share");
+        Path b = temp.resolve("y").resolve("share");
+        Path cacheA = FileIndex.defaultCacheFile(a);
+        assertFalse(cacheA.startsWith(a.toAbsolutePath()));
+        assertFalse(cacheA.startsWith(a.toAbsolutePath().getParent()));
+        assertNotEquals(cacheA, FileIndex.defaultCacheFile(b));
+        assertTrue(cacheA.getFileName().toString().startsWith("share-"));
+    }
+}
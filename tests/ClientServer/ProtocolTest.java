@@ -0,0 +1,147 @@
+package ClientServer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Wire format of Protocol: round trips through heap and direct buffers,
+ * the exact header layout older nodes expect, and rejection of malformed
+ * datagrams.
+ */
+class ProtocolTest {
+    private static final long TIMESTAMP = 1_700_000_000_123L;
+
+    private static Protocol decodeFrom(byte[] data, boolean direct) throws ProtocolException {
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(data.length) : ByteBuffer.allocate(data.length);
+        buffer.put(data).flip();
+        return Protocol.decode(buffer);
+    }
+
+    private static void assertSameMessage(Protocol expected, Protocol actual) {
+        assertEquals(expected.getVersion(), actual.getVersion());
+        assertEquals(expected.getMode(), actual.getMode());
+        assertEquals(expected.getNodeAddress(), actual.getNodeAddress());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getReserve(), actual.getReserve());
+        assertEquals(expected.getPayload(), actual.getPayload());
+        assertEquals(expected.getLength(), actual.getLength());
+    }
+
+    @Test
+    void roundTripsThroughHeapAndDirectBuffers() throws ProtocolException {
+        String[] payloads = {"", "Alive", "a.txt|5|1|abc,b.txt|7|2|,", "snowman ☃ and 😀"};
+        for (String payload : payloads) {
+            Protocol message = new Protocol(1, false, "10.1.2.3", TIMESTAMP, 42, payload);
+            byte[] data = message.serialize();
+            assertEquals(Protocol.HEADER_SIZE + payload.getBytes(StandardCharsets.UTF_8).length, data.length);
+            for (boolean direct : new boolean[] {false, true}) {
+                Protocol decoded = decodeFrom(data, direct);
+                assertSameMessage(message, decoded);
+                assertEquals("10.1.2.3", decoded.getNodeId());
+            }
+        }
+    }
+
+    @Test
+    void decodesAtTheBufferPositionAndConsumesOneMessage() throws ProtocolException {
+        Protocol first = new Protocol(1, true, "192.168.0.1", TIMESTAMP, 1, "first");
+        Protocol second = new Protocol(2, false, "192.168.0.2", TIMESTAMP + 1, 2, "second");
+        for (boolean direct : new boolean[] {false, true}) {
+            ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(256) : ByteBuffer.allocate(256);
+            buffer.put((byte) 0x7F); // Not part of any message
+            first.encode(buffer);
+            second.encode(buffer);
+            buffer.flip().position(1);
+
+            assertSameMessage(first, Protocol.decode(buffer));
+            assertSameMessage(second, Protocol.decode(buffer));
+            assertFalse(buffer.hasRemaining());
+        }
+    }
+
+    @Test
+    void decodesFromAnArraySliceWithAnOffset() throws ProtocolException {
+        Protocol message = new Protocol(1, false, "1.2.3.4", TIMESTAMP, 0, "payload");
+        byte[] data = message.serialize();
+        byte[] padded = new byte[data.length + 10];
+        System.arraycopy(data, 0, padded, 5, data.length);
+        ByteBuffer slice = ByteBuffer.wrap(padded, 5, data.length).slice();
+        assertSameMessage(message, Protocol.decode(slice));
+    }
+
+    @Test
+    void headerLayoutIsFixed() {
+        byte[] data = new Protocol(3, true, "10.0.0.1", TIMESTAMP, -1, "hi").serialize();
+        ByteBuffer expected = ByteBuffer.allocate(Protocol.HEADER_SIZE + 2);
+        expected.putInt(3).put((byte) 1).putInt(0x0A000001).putLong(TIMESTAMP).putInt(-1).putInt(2)
+                .put((byte) 'h').put((byte) 'i');
+        assertArrayEquals(expected.array(), data);
+        assertEquals(25, Protocol.HEADER_SIZE);
+    }
+
+    @Test
+    void nonIpv4NodeIdsTravelAsZero() throws ProtocolException {
+        for (String nodeId : new String[] {"server", "::1", "10.0.0", "10.0.0.256", "1.2.3.4.5", "", null}) {
+            Protocol message = new Protocol(1, false, nodeId, TIMESTAMP, 0, "x");
+            assertEquals(0, message.getNodeAddress(), String.valueOf(nodeId));
+            // Kept as given on the sending side; a missing id reads as the address it travels as
+            assertEquals(nodeId != null ? nodeId : "0.0.0.0", message.getNodeId());
+            assertEquals("0.0.0.0", decodeFrom(message.serialize(), false).getNodeId());
+        }
+    }
+
+    @Test
+    void rawNodeAddressRoundTrips() throws ProtocolException {
+        Protocol message = new Protocol(1, true, -7, TIMESTAMP, 0, "peer");
+        Protocol decoded = decodeFrom(message.serialize(), true);
+        assertEquals(-7, decoded.getNodeAddress());
+        assertEquals("255.255.255.249", decoded.getNodeId());
+    }
+
+    @Test
+    void rejectsTruncatedHeader() {
+        byte[] data = new Protocol(1, false, "10.0.0.1", TIMESTAMP, 0, "payload").serialize();
+        for (int length = 0; length < Protocol.HEADER_SIZE; length++) {
+            byte[] truncated = Arrays.copyOf(data, length);
+            assertThrows(ProtocolException.class, () -> decodeFrom(truncated, false));
+            assertThrows(ProtocolException.class, () -> decodeFrom(truncated, true));
+        }
+    }
+
+    @Test
+    void rejectsUnknownMode() {
+        byte[] data = new Protocol(1, false, "10.0.0.1", TIMESTAMP, 0, "payload").serialize();
+        data[Integer.BYTES] = 2;
+        assertThrows(ProtocolException.class, () -> decodeFrom(data, false));
+    }
+
+    @Test
+    void rejectsBadPayloadLength() {
+        byte[] data = new Protocol(1, false, "10.0.0.1", TIMESTAMP, 0, "payload").serialize();
+        int lengthOffset = Protocol.HEADER_SIZE - Integer.BYTES;
+
+        ByteBuffer.wrap(data).putInt(lengthOffset, -1);
+        assertThrows(ProtocolException.class, () -> decodeFrom(data, false));
+
+        ByteBuffer.wrap(data).putInt(lengthOffset, "payload".length() + 1); // Longer than the datagram
+        assertThrows(ProtocolException.class, () -> decodeFrom(data, true));
+
+        byte[] truncatedPayload = Arrays.copyOf(
+                new Protocol(1, false, "10.0.0.1", TIMESTAMP, 0, "payload").serialize(), Protocol.HEADER_SIZE + 3);
+        assertThrows(ProtocolException.class, () -> decodeFrom(truncatedPayload, false));
+    }
+
+    @Test
+    void payloadLargerThanTheDirectScratchBuffer() throws ProtocolException {
+        String payload = "f".repeat(5000) + "é";
+        Protocol message = new Protocol(1, false, "10.0.0.1", TIMESTAMP, 0, payload);
+        assertEquals(payload, decodeFrom(message.serialize(), true).getPayload());
+        assertEquals("small", decodeFrom(new Protocol(1, false, "10.0.0.1", TIMESTAMP, 0, "small").serialize(), true)
+                .getPayload());
+    }
+}
@@ -0,0 +1,69 @@
+package ClientServer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Fragmenter and Reassembler together, and the memory bounds a hostile
+ * sender cannot get around.
+ */
+class ReassemblerTest {
+    private static final InetSocketAddress SOURCE = new InetSocketAddress("10.0.0.1", 5000);
+
+    private static ByteBuffer fragment(int messageId, int index, int count, int payloadBytes) {
+        ByteBuffer fragment = ByteBuffer.allocate(Fragmenter.HEADER_SIZE + payloadBytes);
+        fragment.putInt(Fragmenter.MAGIC).putInt(messageId).putShort((short) index).putShort((short) count);
+        fragment.position(fragment.limit()).flip();
+        return fragment;
+    }
+
+    @Test
+    void reassemblesFragmentsInAnyOrder() throws Exception {
+        Protocol message = new Protocol(1, false, "10.0.0.1", 1L, 0, "x".repeat(5000));
+        List<ByteBuffer> fragments = Fragmenter.split(message, 1200);
+        assertEquals(5, fragments.size());
+        Collections.reverse(fragments);
+
+        Reassembler reassembler = new Reassembler(16, 1 << 20, 5000);
+        ByteBuffer complete = null;
+        for (ByteBuffer datagram : fragments) {
+            assertNull(complete);
+            complete = reassembler.accept(SOURCE, datagram, 0);
+        }
+        assertEquals(message.getPayload(), Protocol.decode(complete).getPayload());
+        assertEquals(0, reassembler.getPendingBytes());
+    }
+
+    @Test
+    void refusesFragmentCountsThatCannotFit() {
+        Reassembler reassembler = new Reassembler(16, 64 * 1024, 5000);
+        assertNull(reassembler.accept(SOURCE, fragment(1, 0, 0xFFFF, 1000), 0));
+        assertNull(reassembler.accept(SOURCE, fragment(2, 0xFFFE, 0xFFFF, 1), 0)); // Small last fragment first
+        assertNull(reassembler.accept(SOURCE, fragment(3, 0, 2, 0), 0));
+        assertEquals(3, reassembler.getRejected());
+        assertEquals(0, reassembler.getPendingMessages());
+        assertEquals(0, reassembler.getPendingBytes());
+    }
+
+    @Test
+    void chargesTheFragmentTableUntilTheMessageIsGone() {
+        Reassembler reassembler = new Reassembler(16, 1 << 20, 5000);
+        assertNull(reassembler.accept(SOURCE, fragment(1, 0, 100, 1000), 0));
+        assertTrue(reassembler.getPendingBytes() > 1000 + 100 * 4);
+        reassembler.expire(10_000);
+        assertEquals(1, reassembler.getExpired());
+        assertEquals(0, reassembler.getPendingBytes());
+    }
+
+    @Test
+    void splitRejectsAnMtuWithNoRoomForData() {
+        Protocol message = new Protocol(1, false, "10.0.0.1", 1L, 0, "payload");
+        assertThrows(IllegalArgumentException.class, () -> Fragmenter.split(message, Fragmenter.HEADER_SIZE));
+        assertEquals(message.serialize().length, Fragmenter.split(message, Fragmenter.HEADER_SIZE + 1).size());
+    }
+}
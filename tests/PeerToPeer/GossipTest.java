@@ -0,0 +1,230 @@
+package PeerToPeer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * SWIM rules on loopback sockets, with the clock driven by the test: nodes
+ * only act when tick() or drain() is called with a synthetic time, and a
+ * lost datagram is one the test takes off a socket without handling it.
+ * Loopback delivers before send returns, so no waiting is needed.
+ */
+class GossipTest {
+    private static final long PERIOD = 100;
+    private static final long ACK_TIMEOUT = PERIOD / 3;
+    private static final long SUSPICION = 500;
+    private static final long TOMBSTONE = 60000;
+    private static final long T = 1_000_000; // Start of the synthetic clock
+
+    private final List<Gossip> nodes = new ArrayList<>();
+    private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+    private final List<Integer> received = new ArrayList<>();
+
+    private Gossip open(int id) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress("127.0.0.1", 0));
+        Gossip gossip = new Gossip(id, channel, address(channel), PERIOD, 3, SUSPICION);
+        gossip.setListener(new Gossip.Listener() {
+            @Override
+            public void memberUp(int member, InetSocketAddress address) {
+                events.add(id + " up " + member);
+            }
+
+            @Override
+            public void memberDown(int member) {
+                events.add(id + " down " + member);
+            }
+        });
+        gossip.setReceiver((datagram, source) -> {
+            try {
+                received.add(Protocol.decode(datagram).getNodeId());
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+        nodes.add(gossip);
+        return gossip;
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        for (Gossip node : nodes) {
+            node.getChannel().close();
+        }
+    }
+
+    private static InetSocketAddress address(DatagramChannel channel) throws IOException {
+        return (InetSocketAddress) channel.getLocalAddress();
+    }
+
+    private static InetSocketAddress address(Gossip node) throws IOException {
+        return address(node.getChannel());
+    }
+
+    // Lets the nodes answer each other at time now until they go quiet
+    private static void deliver(long now, Gossip... nodes) throws IOException {
+        for (int round = 0; round < 6; round++) {
+            for (Gossip node : nodes) {
+                node.drain(now);
+            }
+        }
+    }
+
+    // Takes every datagram waiting for node off its socket: they are lost
+    private static List<Protocol> intercept(Gossip node) throws IOException {
+        List<Protocol> messages = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(1500);
+        while (node.getChannel().receive(buffer) != null) {
+            buffer.flip();
+            messages.add(Protocol.decode(buffer));
+            buffer.clear();
+        }
+        return messages;
+    }
+
+    private static boolean suspects(List<Protocol> messages, int id) {
+        for (Protocol message : messages) {
+            if (message.getPayload().contains("\n" + Gossip.SUSPECT + " " + id + " ")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Each node joins through the ones before it, so all know all without any tick
+    private void joinAll(Gossip... members) throws IOException {
+        List<InetSocketAddress> seeds = new ArrayList<>();
+        for (Gossip member : members) {
+            member.join(seeds);
+            seeds.add(address(member));
+        }
+        deliver(T, members);
+        for (Gossip node : members) {
+            assertEquals(members.length - 1, node.aliveCount());
+        }
+    }
+
+    @Test
+    void reportsMembersAndPassesOtherDatagramsOn() throws Exception {
+        Gossip a = open(1);
+        Gossip b = open(2);
+        joinAll(a, b);
+        assertTrue(events.contains("1 up 2"), events.toString());
+        assertTrue(events.contains("2 up 1"), events.toString());
+
+        // Reserve 0 is not a gossip type: it goes to the receiver, not the protocol
+        ByteBuffer listing = ByteBuffer.wrap(new Protocol(1, true, 1, 0L, 0, "Alive-Peer").serialize());
+        a.getChannel().send(listing, address(b));
+        deliver(T, b);
+        assertEquals(List.of(1), received);
+    }
+
+    @Test
+    void silentMemberIsSuspectedThenDeclaredDead() throws Exception {
+        Gossip a = open(1);
+        Gossip b = open(2);
+        joinAll(a, b);
+
+        a.tick(T); // Probes b, which never answers
+        assertEquals(1, intercept(b).size());
+        a.tick(T + PERIOD);
+        assertTrue(suspects(intercept(b), 2)); // The next probe carries the suspicion
+        assertTrue(a.isAlive(2)); // Suspects still count as members
+
+        a.tick(T + PERIOD + SUSPICION - 1);
+        assertFalse(events.contains("1 down 2"));
+        a.tick(T + PERIOD + SUSPICION);
+        assertTrue(events.contains("1 down 2"), events.toString());
+        assertFalse(a.isAlive(2));
+        assertTrue(a.knows(2)); // Tombstone
+    }
+
+    @Test
+    void suspectRefutesWithAHigherIncarnation() throws Exception {
+        Gossip a = open(1);
+        Gossip b = open(2);
+        joinAll(a, b);
+
+        a.tick(T);
+        intercept(b); // First probe lost
+        a.tick(T + PERIOD); // Suspects b and probes it again, with the suspicion attached
+        deliver(T + PERIOD, b, a); // b refutes in its ACK
+
+        a.tick(T + PERIOD + SUSPICION);
+        a.tick(T + 2 * PERIOD + SUSPICION);
+        assertFalse(events.contains("1 down 2"), events.toString());
+        assertTrue(a.isAlive(2));
+    }
+
+    @Test
+    void indirectProbeThroughAnotherMemberAvoidsSuspicion() throws Exception {
+        Gossip a = open(1);
+        Gossip b = open(2);
+        Gossip c = open(3);
+        joinAll(a, b, c);
+
+        a.tick(T);
+        List<Protocol> toB = intercept(b);
+        List<Protocol> toC = intercept(c);
+        assertEquals(1, toB.size() + toC.size());
+        Gossip target = toB.isEmpty() ? c : b; // Its direct PING is lost
+        Gossip helper = target == b ? c : b;
+
+        a.tick(T + ACK_TIMEOUT); // No ACK yet: PING_REQ to the helper
+
+        // The helper pings the target and forwards its ACK to a
+        long sentBefore = helper.getMessagesSent();
+        deliver(T + ACK_TIMEOUT, helper, target, a);
+        assertEquals(2, helper.getMessagesSent() - sentBefore);
+
+        a.tick(T + PERIOD); // The probe was acked: no suspicion in the next probe
+        assertFalse(suspects(intercept(b), target.getNodeId()));
+        assertFalse(suspects(intercept(c), target.getNodeId()));
+        a.tick(T + PERIOD + SUSPICION);
+        assertTrue(a.isAlive(target.getNodeId()));
+    }
+
+    @Test
+    void churnKeepsOneProbeEntryPerMember() throws Exception {
+        Gossip a = open(1);
+        Gossip b = open(2);
+        joinAll(a, b);
+        long now = T;
+
+        for (int cycle = 0; cycle < 3; cycle++) {
+            // b goes silent until a declares it dead
+            for (long until = now + 2 * PERIOD + SUSPICION; now <= until; now += PERIOD) {
+                a.tick(now);
+                intercept(b);
+            }
+            assertFalse(a.isAlive(2));
+
+            if (cycle == 1) {
+                // Back before the tombstone is gone: a's ACK tells b it was declared dead, b refutes
+                b.join(Collections.singletonList(address(a)));
+                deliver(now, a, b);
+                b.join(Collections.singletonList(address(a)));
+                deliver(now, a, b);
+            } else {
+                now += TOMBSTONE;
+                a.tick(now); // Tombstone dropped
+                assertFalse(a.knows(2));
+                b.join(Collections.singletonList(address(a)));
+                deliver(now, a, b);
+            }
+            assertTrue(a.isAlive(2), "cycle " + cycle);
+            assertEquals(1, a.probeOrderSize(), "cycle " + cycle);
+        }
+        assertEquals(3, Collections.frequency(events, "1 down 2"));
+        assertEquals(4, Collections.frequency(events, "1 up 2"), events.toString());
+    }
+}
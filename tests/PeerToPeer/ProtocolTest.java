@@ -0,0 +1,52 @@
+package PeerToPeer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Peer messages use ClientServer.Protocol's wire format with the peer id in
+ * the node id field, so the two must read each other's datagrams.
+ */
+class ProtocolTest {
+    @Test
+    void roundTripsThroughHeapAndDirectBuffers() throws IOException {
+        Protocol message = new Protocol(1, true, 12345, 99L, 7, "Alive-Peer\n@files 4000\na.txt,b.txt");
+        byte[] data = message.serialize();
+
+        Protocol fromArray = Protocol.deserialize(data);
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        Protocol fromDirect = Protocol.decode(direct);
+
+        for (Protocol decoded : new Protocol[] {fromArray, fromDirect}) {
+            assertEquals(1, decoded.getVersion());
+            assertTrue(decoded.isP2P());
+            assertEquals(12345, decoded.getNodeId());
+            assertEquals(99L, decoded.getTimestamp());
+            assertEquals(7, decoded.getReserve());
+            assertEquals(message.getPayload(), decoded.getPayload());
+            assertEquals(data.length, decoded.getTotalSize());
+        }
+    }
+
+    @Test
+    void sameBytesAsClientServerProtocol() throws IOException {
+        byte[] peer = new Protocol(1, true, 0x0A000001, 5L, 3, "x").serialize();
+        byte[] client = new ClientServer.Protocol(1, true, "10.0.0.1", 5L, 3, "x").serialize();
+        assertArrayEquals(client, peer);
+        assertEquals("10.0.0.1", ClientServer.Protocol.deserialize(peer).getNodeId());
+        assertEquals(0x0A000001, Protocol.deserialize(client).getNodeId());
+    }
+
+    @Test
+    void rejectsMalformedDatagrams() {
+        assertThrows(ProtocolException.class, () -> Protocol.deserialize(new byte[Protocol.HEADER_SIZE - 1]));
+        byte[] data = new Protocol(1, true, 1, 0L, 0, "abc").serialize();
+        data[Integer.BYTES] = 9; // Mode
+        assertThrows(ProtocolException.class, () -> Protocol.deserialize(data));
+    }
+}
@@ -0,0 +1,74 @@
+package PeerToPeer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import networking.FileTransferProtocol.Manifest;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Scheduler bookkeeping: an I/O failure puts the chunk back with a growing
+ * backoff and only repeated failures drop a peer, while a hash mismatch
+ * removes just that chunk from the peer at once.
+ */
+class SwarmDownloaderTest {
+    private static Manifest manifest(int chunks) {
+        byte[][] hashes = new byte[chunks][];
+        for (int i = 0; i < chunks; i++) {
+            hashes[i] = new byte[] {(byte) i};
+        }
+        return new Manifest(chunks * 10L, 0L, 10, hashes, new byte[] {1});
+    }
+
+    @Test
+    void transientFailuresAreRetriedWithBackoff() {
+        Manifest wanted = manifest(2);
+        SwarmDownloader.Scheduler scheduler = new SwarmDownloader.Scheduler(wanted, List.of(wanted));
+
+        int chunk = scheduler.next(0);
+        long previous = 0;
+        for (int i = 1; i < SwarmDownloader.MAX_PEER_FAILURES; i++) {
+            long backoff = scheduler.unreachable(chunk, 0);
+            assertTrue(backoff > previous || backoff == SwarmDownloader.MAX_BACKOFF_MILLIS, "backoff " + backoff);
+            previous = backoff;
+            assertEquals(chunk, scheduler.next(0)); // Still ours to retry, the only seeder
+        }
+        scheduler.done(chunk, 0); // A good chunk resets the count
+        assertEquals(SwarmDownloader.BACKOFF_MILLIS, scheduler.unreachable(scheduler.next(0), 0));
+        scheduler.done(scheduler.next(0), 0);
+        assertTrue(scheduler.isComplete());
+        assertEquals(-1, scheduler.next(0));
+    }
+
+    @Test
+    void repeatedFailuresDropThePeer() {
+        Manifest wanted = manifest(3);
+        SwarmDownloader.Scheduler scheduler = new SwarmDownloader.Scheduler(wanted, List.of(wanted, wanted));
+
+        for (int i = 1; i < SwarmDownloader.MAX_PEER_FAILURES; i++) {
+            assertTrue(scheduler.unreachable(scheduler.next(0), 0) > 0);
+        }
+        assertEquals(-1, scheduler.unreachable(scheduler.next(0), 0));
+        assertEquals(-1, scheduler.next(0)); // Holds nothing any more
+
+        for (int i = 0; i < 3; i++) {
+            scheduler.done(scheduler.next(1), 1);
+        }
+        assertTrue(scheduler.isComplete());
+    }
+
+    @Test
+    void hashMismatchRemovesOnlyThatChunk() {
+        Manifest wanted = manifest(2);
+        SwarmDownloader.Scheduler scheduler = new SwarmDownloader.Scheduler(wanted, List.of(wanted));
+
+        int bad = scheduler.next(0);
+        scheduler.corrupt(bad, 0);
+        int other = scheduler.next(0);
+        assertNotEquals(bad, other);
+        scheduler.done(other, 0);
+        assertEquals(-1, scheduler.next(0)); // Nobody else has the bad chunk
+        assertFalse(scheduler.isComplete());
+        assertEquals(bad, scheduler.firstMissing());
+    }
+}